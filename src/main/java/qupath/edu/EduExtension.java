@@ -3,6 +3,7 @@ package qupath.edu;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.geometry.Insets;
 import javafx.scene.Node;
 import javafx.scene.control.*;
@@ -15,12 +16,14 @@ import org.controlsfx.control.action.Action;
 import org.controlsfx.glyphfont.FontAwesome;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qupath.edu.api.ClassroomProxy;
 import qupath.edu.api.EduAPI;
 import qupath.edu.gui.Browser;
 import qupath.edu.gui.UserModeListCell;
 import qupath.edu.gui.buttons.IconButtons;
 import qupath.edu.gui.dialogs.*;
 import qupath.edu.gui.dialogs.openmicroanatomy.SlideManager;
+import qupath.edu.server.VisibleRegions;
 import qupath.edu.tours.SlideTour;
 import qupath.edu.util.UserModeManager;
 import qupath.edu.util.ReflectionUtil;
@@ -90,6 +93,8 @@ public class EduExtension implements QuPathExtension, GitHubProject {
         replaceViewer();
         replaceProjectBrowserButtons();
         registerSlideTours();
+        trackVisibleRegions();
+        startClassroomProxy();
 
         onProjectChange();
         onSlideChange();
@@ -181,7 +186,9 @@ public class EduExtension implements QuPathExtension, GitHubProject {
         qupath.getMenu("QuPath Edu", true).getItems().addAll(
             createMenuItem(createAction(AdministrativeToolsDialog::show, "Administrative tools")),
             createMenuItem(createAction(EduExtension::showWorkspaceOrLoginDialog, "Show workspaces")),
-            createMenuItem(createAction(this::checkSaveChanges, "Force sync changes"))
+            createMenuItem(createAction(this::checkSaveChanges, "Force sync changes")),
+            createMenuItem(createAction(OfflineLessons::exportLesson, "Export lesson for offline use...")),
+            createMenuItem(createAction(OfflineLessons::openLesson, "Open offline lesson..."))
         );
 
         ComboBox<UserMode> cbUserMode = new ComboBox<>();
@@ -220,6 +227,67 @@ public class EduExtension implements QuPathExtension, GitHubProject {
                 .name("Show login dialog on startup")
                 .description("If enabled, opens the login dialog on startup.")
                 .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.progressiveTiles(), Boolean.class)
+                .name("Show low resolution tiles while loading")
+                .description("If enabled, the viewer shows upscaled lower resolution tiles until remote tiles have loaded.")
+                .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.aggregateTileRequests(), Boolean.class)
+                .name("Fetch tiles in larger blocks")
+                .description("If enabled, neighbouring remote tiles are fetched together when it is faster, e.g. on high latency networks.")
+                .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.adaptiveTileQuality(), Boolean.class)
+                .name("Show low quality tiles on slow connections")
+                .description("If enabled and the tile server supports it, low quality tiles are shown first on slow connections and replaced with full quality tiles once the view settles. Requires low resolution tiles to be shown while loading.")
+                .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.tileByteCacheSize(), Integer.class)
+                .name("Compressed tile cache size (MB)")
+                .description("Memory used to keep downloaded tiles in their compressed form, so that they need not be downloaded again. Set to 0 to disable.")
+                .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.depthPrefetchRange(), Integer.class)
+                .name("Prefetched z-planes")
+                .description("Number of z-planes above and below the current plane downloaded in the background, so that focusing through a z-stack is smooth. Set to 0 to disable.")
+                .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.hedgedTileRequestBudget(), Double.class)
+                .name("Hedged tile request budget (%)")
+                .description("If a tile takes much longer than usual, it is requested again and the first response is used. Limits these extra requests to a percentage of all tile requests. Set to 0 to disable.")
+                .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.tileServerMirrors(), String.class)
+                .name("Tile server mirrors")
+                .description("Base URLs of mirrors of the tile servers, separated by commas, e.g. a caching replica in the lecture hall. Tiles are fetched from the fastest mirror which works.")
+                .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.classroomProxyPort(), Integer.class)
+                .name("Classroom proxy port")
+                .description("Share the tiles fetched by this computer with the other computers in the classroom on this port. 0 to disable.")
+                .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.classroomProxy(), String.class)
+                .name("Classroom proxy")
+                .description("URL of the classroom proxy to fetch tiles through, 'auto' to find one on the local network, or empty to fetch tiles directly. "
+                    + "'auto' requires the same classroom key on every computer. Tiles from the proxy are not verified, so only use a proxy on a trusted network.")
+                .category("QuPath Edu")
+                .build(),
+
+            new PropertyItemBuilder<>(EduOptions.classroomProxyKey(), String.class)
+                .name("Classroom key")
+                .description("Key shared by the computers in the classroom. A classroom proxy found with 'auto' is only used if it knows the same key.")
+                .category("QuPath Edu")
                 .build()
         );
 
@@ -300,6 +368,40 @@ public class EduExtension implements QuPathExtension, GitHubProject {
         viewer.addViewerListener(slideTour);
     }
 
+    /**
+     * Tracks the regions shown in all viewers, including viewers added later, e.g. when changing the viewer grid.
+     */
+    private void trackVisibleRegions() {
+        qupath.getAllViewers().forEach(VisibleRegions::install);
+
+        qupath.getAllViewers().addListener((ListChangeListener<QuPathViewer>) change -> {
+            while (change.next()) {
+                change.getRemoved().forEach(VisibleRegions::uninstall);
+                change.getAddedSubList().forEach(VisibleRegions::install);
+            }
+        });
+    }
+
+    private void startClassroomProxy() {
+        updateClassroomProxy(EduOptions.classroomProxyPort().get());
+
+        EduOptions.classroomProxyPort().addListener((obs, oldPort, newPort) -> updateClassroomProxy(newPort.intValue()));
+    }
+
+    private void updateClassroomProxy(int port) {
+        if (port <= 0) {
+            ClassroomProxy.stop();
+            return;
+        }
+
+        try {
+            ClassroomProxy.start(port);
+        } catch (IOException e) {
+            logger.error("Error while starting classroom proxy", e);
+            Dialogs.showErrorNotification("Classroom proxy", "Unable to start the classroom proxy on port " + port);
+        }
+    }
+
     private void checkSaveChanges() {
         if (qupath.getProject() instanceof EduProject) {
             try {
@@ -359,27 +461,39 @@ public class EduExtension implements QuPathExtension, GitHubProject {
         } catch (Exception e) {
             logger.error("Error when connecting to server", e);
 
-            String[] choices = { "Cancel", "Change server", "Retry connection" };
+            showConnectionErrorDialog();
+        }
+    }
 
-            var dialog = Dialogs.builder()
-                .title("Error when connecting to " + EduAPI.getHost())
-                .contentText("Please check your internet connection and that you're connecting to the correct server.")
-                .buttons(choices)
-                .build();
+    /**
+     * Prompts the user to retry connecting or to change the server after connecting to the server failed.
+     */
+    public static void showConnectionErrorDialog() {
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(EduExtension::showConnectionErrorDialog);
+            return;
+        }
 
-            var response = dialog.showAndWait();
+        String[] choices = { "Cancel", "Change server", "Retry connection" };
 
-            EduAPI.logout();
+        var dialog = Dialogs.builder()
+            .title("Error when connecting to " + EduAPI.getHost())
+            .contentText("Please check your internet connection and that you're connecting to the correct server.")
+            .buttons(choices)
+            .build();
 
-            if (response.isPresent()) {
-                var text = response.orElse(ButtonType.CLOSE).getText();
+        var response = dialog.showAndWait();
 
-                if (text.equals(choices[1])) {
-                    FirstTimeSetup.showDialog();
-                    showWorkspaceOrLoginDialog();
-                } else if (text.equals(choices[2])) {
-                    showWorkspaceOrLoginDialog();
-                }
+        EduAPI.logout();
+
+        if (response.isPresent()) {
+            var text = response.orElse(ButtonType.CLOSE).getText();
+
+            if (text.equals(choices[1])) {
+                FirstTimeSetup.showDialog();
+                showWorkspaceOrLoginDialog();
+            } else if (text.equals(choices[2])) {
+                showWorkspaceOrLoginDialog();
             }
         }
     }
@@ -1,6 +1,8 @@
 package qupath.edu;
 
 import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.StringProperty;
 import qupath.lib.gui.prefs.PathPrefs;
 
@@ -51,4 +53,135 @@ public class EduOptions {
 
     private static final StringProperty host = PathPrefs.createPersistentPreference("eduHost", null);
 
+    /**
+     * Slide upload throughput in bytes per second measured during the previous upload. Used to pick the chunk size
+     * for the next upload; zero if nothing has been uploaded yet.
+     */
+    public static DoubleProperty uploadThroughput() {
+        return uploadThroughput;
+    }
+
+    private static final DoubleProperty uploadThroughput = PathPrefs.createPersistentPreference("eduUploadThroughput", 0.0);
+
+    /**
+     * Maximum combined bandwidth of queued slide uploads in megabytes per second; zero for unlimited.
+     */
+    public static DoubleProperty uploadBandwidthLimit() {
+        return uploadBandwidthLimit;
+    }
+
+    private static final DoubleProperty uploadBandwidthLimit = PathPrefs.createPersistentPreference("eduUploadBandwidthLimit", 0.0);
+
+    /**
+     * Maximum number of chunks uploaded at once across all queued slide uploads.
+     */
+    public static IntegerProperty uploadParallelChunks() {
+        return uploadParallelChunks;
+    }
+
+    private static final IntegerProperty uploadParallelChunks = PathPrefs.createPersistentPreference("eduUploadParallelChunks", 4);
+
+    /**
+     * Flag to indicate whether the viewer shows upscaled lower resolution tiles while remote tiles are loading.
+     */
+    public static BooleanProperty progressiveTiles() {
+        return progressiveTiles;
+    }
+
+    private static final BooleanProperty progressiveTiles = PathPrefs.createPersistentPreference("eduProgressiveTiles", true);
+
+    /**
+     * Flag to indicate whether remote tiles are fetched in larger blocks, which are then split into tiles.
+     */
+    public static BooleanProperty aggregateTileRequests() {
+        return aggregateTileRequests;
+    }
+
+    private static final BooleanProperty aggregateTileRequests = PathPrefs.createPersistentPreference("eduAggregateTileRequests", true);
+
+    /**
+     * Flag to indicate whether low quality tiles are shown first on slow connections, if the tile server supports it.
+     */
+    public static BooleanProperty adaptiveTileQuality() {
+        return adaptiveTileQuality;
+    }
+
+    private static final BooleanProperty adaptiveTileQuality = PathPrefs.createPersistentPreference("eduAdaptiveTileQuality", true);
+
+    /**
+     * Memory in megabytes used to keep encoded remote tiles, so that they need not be downloaded again; zero to disable.
+     */
+    public static IntegerProperty tileByteCacheSize() {
+        return tileByteCacheSize;
+    }
+
+    private static final IntegerProperty tileByteCacheSize = PathPrefs.createPersistentPreference("eduTileByteCacheSize", 256);
+
+    /**
+     * Number of z-planes above and below the viewed plane prefetched for slides with multiple z-planes; zero to disable.
+     */
+    public static IntegerProperty depthPrefetchRange() {
+        return depthPrefetchRange;
+    }
+
+    private static final IntegerProperty depthPrefetchRange = PathPrefs.createPersistentPreference("eduDepthPrefetchRange", 2);
+
+    /**
+     * Extra tile requests allowed for hedging slow tile requests, as a percentage of all tile requests; zero to disable.
+     */
+    public static DoubleProperty hedgedTileRequestBudget() {
+        return hedgedTileRequestBudget;
+    }
+
+    private static final DoubleProperty hedgedTileRequestBudget = PathPrefs.createPersistentPreference("eduHedgedTileRequestBudget", 5.0);
+
+    /**
+     * Base URLs of local mirrors of the tile servers, e.g. caching replicas, separated by commas. A mirror serves the
+     * same paths as the tile server.
+     */
+    public static StringProperty tileServerMirrors() {
+        return tileServerMirrors;
+    }
+
+    private static final StringProperty tileServerMirrors = PathPrefs.createPersistentPreference("eduTileServerMirrors", "");
+
+    /**
+     * Hosts from which slides have been opened, separated by commas. Used to recognize slide URIs without requesting
+     * them; not shown in the preferences.
+     */
+    public static StringProperty knownSlideHosts() {
+        return knownSlideHosts;
+    }
+
+    private static final StringProperty knownSlideHosts = PathPrefs.createPersistentPreference("eduKnownSlideHosts", "");
+
+    /**
+     * Port of the classroom proxy run by this computer for the other computers in the classroom, or 0 to not run one.
+     */
+    public static IntegerProperty classroomProxyPort() {
+        return classroomProxyPort;
+    }
+
+    private static final IntegerProperty classroomProxyPort = PathPrefs.createPersistentPreference("eduClassroomProxyPort", 0);
+
+    /**
+     * URL of the classroom proxy used to fetch tiles, <code>auto</code> to use the proxy found on the local network,
+     * or empty to not use one.
+     */
+    public static StringProperty classroomProxy() {
+        return classroomProxy;
+    }
+
+    private static final StringProperty classroomProxy = PathPrefs.createPersistentPreference("eduClassroomProxy", "");
+
+    /**
+     * Key shared by the computers in a classroom, which a classroom proxy found on the local network must know before
+     * it is used. Automatic discovery is disabled without a key.
+     */
+    public static StringProperty classroomProxyKey() {
+        return classroomProxyKey;
+    }
+
+    private static final StringProperty classroomProxyKey = PathPrefs.createPersistentPreference("eduClassroomProxyKey", "");
+
 }
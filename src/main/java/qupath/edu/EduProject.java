@@ -8,9 +8,11 @@ import javafx.scene.control.ButtonType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.edu.api.EduAPI;
+import qupath.edu.api.NetworkScheduler.Priority;
 import qupath.edu.exceptions.HttpException;
 import qupath.edu.gui.dialogs.WorkspaceManager;
 import qupath.edu.server.EduServerBuilder;
+import qupath.edu.server.LessonBundle;
 import qupath.edu.tours.SlideTourEntry;
 import qupath.edu.util.PathAnnotationObjectWithMetadata;
 import qupath.fx.dialogs.Dialogs;
@@ -37,7 +39,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.*;
@@ -68,6 +69,11 @@ public class EduProject implements Project<BufferedImage> {
 	private String projectInformation;
 
 	private boolean maskNames = false;
+
+	/**
+	 * True if the project was opened from an offline lesson; changes are then never synced to the server.
+	 */
+	private boolean offline = false;
 	private LinkedHashMap<String, String> metadata = new LinkedHashMap<>();
 
 	private long creationTimestamp;
@@ -241,6 +247,18 @@ public class EduProject implements Project<BufferedImage> {
 			return;
 		}
 
+		// Offline lessons are read-only copies of a lesson, which may not even exist on the server anymore.
+		if (offline) {
+			return;
+		}
+
+		syncChangesToServer(toJson());
+	}
+
+	/**
+	 * @return the project as JSON, as stored on the server.
+	 */
+	public String toJson() {
 		Gson gson = GsonTools.getInstance(true);
 
 		JsonObject builder = new JsonObject();
@@ -259,7 +277,15 @@ public class EduProject implements Project<BufferedImage> {
 
 		builder.add("images", gson.toJsonTree(images));
 
-		syncChangesToServer(gson.toJson(builder));
+		return gson.toJson(builder);
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	public void setOffline(boolean offline) {
+		this.offline = offline;
 	}
 
 	/**
@@ -778,12 +804,27 @@ public class EduProject implements Project<BufferedImage> {
 			String property = "openslide.thumbnail.uri";
 
 			try {
-				Optional<JsonObject> properties = EduAPI.getSlideProperties(serverBuilder.getURIs().iterator().next());
+				URI uri = serverBuilder.getURIs().iterator().next();
+
+				if (LessonBundle.isBundleURI(uri)) {
+					byte[] thumbnail = LessonBundle.forURI(uri).getThumbnail(LessonBundle.getSlideId(uri));
+
+					if (thumbnail == null) {
+						return false;
+					}
+
+					setThumbnail(ImageIO.read(new ByteArrayInputStream(thumbnail)));
+
+					return true;
+				}
+
+				Optional<JsonObject> properties = EduAPI.getSlideProperties(uri);
 
 				if (properties.isPresent() && properties.get().has(property)) {
 					String thumbnailUrl = properties.get().get(property).getAsString();
+					byte[] thumbnail = EduAPI.downloadTile(URI.create(thumbnailUrl), Priority.THUMBNAIL);
 
-					setThumbnail(ImageIO.read(new URL(thumbnailUrl)));
+					setThumbnail(ImageIO.read(new ByteArrayInputStream(thumbnail)));
 
 					return true;
 				}
@@ -0,0 +1,538 @@
+package qupath.edu.api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+import qupath.edu.api.NetworkScheduler.Priority;
+import qupath.lib.common.ThreadTools;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.*;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Caching proxy for tiles shared by the computers in a classroom, so that tiles are fetched over the uplink of the
+ * building once instead of once per student.
+ * <p>
+ * One computer, e.g. the instructor's, runs the proxy by setting {@link EduOptions#classroomProxyPort()}. The other
+ * computers are either configured with its URL, or set {@link EduOptions#classroomProxy()} to <code>auto</code> to
+ * use the proxy announced on the local network with UDP broadcasts. If the proxy fails, requests go directly to the
+ * servers for a while.
+ * <p>
+ * Anyone on the local network can send an announcement, so a discovered proxy is only used after it has proven that it
+ * knows the classroom key, see {@link EduOptions#classroomProxyKey()}, by answering a random challenge. Without a
+ * classroom key, automatic discovery is disabled. Tiles from the proxy are not verified, so the proxy itself must be
+ * trusted.
+ * <p>
+ * Only tiles go through the proxy; they are fetched without credentials, so no credentials are ever sent to the
+ * proxy, and slide properties always come from the QuPath Edu server directly. So that it cannot be used as an open
+ * proxy, the proxy only fetches tiles from the tile servers of slides on the QuPath Edu server it is connected to
+ * which have been opened on its computer, see {@link #allowTileServers(URI, JsonObject)}. Other tiles are redirected
+ * to their tile server.
+ */
+public class ClassroomProxy {
+
+    private final static Logger logger = LoggerFactory.getLogger(ClassroomProxy.class);
+
+    static final String TILE_PATH = "/edu-proxy/tile";
+    static final String HELLO_PATH = "/edu-proxy/hello";
+
+    public static final String AUTOMATIC = "auto";
+
+    private static final int DISCOVERY_PORT = 47474;
+    private static final String BEACON_PREFIX = "QUPATH-EDU-PROXY ";
+    private static final long BEACON_INTERVAL_MILLIS = 5_000;
+    private static final long BEACON_TIMEOUT_NANOS = 30_000_000_000L;
+    private static final Duration CHALLENGE_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final long MAX_CACHE_BYTES = 256L * 1024 * 1024;
+    private static final long FAILURE_BACKOFF_NANOS = 30_000_000_000L;
+
+    private static final int THREADS = 16;
+
+    /* Proxy */
+
+    private static HttpServer server;
+    private static ExecutorService executor;
+    private static ScheduledExecutorService beacon;
+
+    /**
+     * Tiles in access order, so that the least recently used tiles are evicted first.
+     */
+    private static final LinkedHashMap<String, byte[]> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    private static final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private static final Set<String> tileServers = ConcurrentHashMap.newKeySet();
+
+    private static long requests = 0;
+    private static long upstreamRequests = 0;
+
+    /* Client */
+
+    private static volatile URI discovered;
+    private static volatile long discoveredAt;
+    private static volatile long failedAt;
+    private static volatile boolean failed = false;
+    private static Thread discoveryListener;
+    private static volatile boolean warnedNoKey = false;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private ClassroomProxy() {}
+
+    /**
+     * Starts the proxy and announces it on the local network. A running proxy is restarted.
+     */
+    public static synchronized void start(int port) throws IOException {
+        stop();
+
+        executor = Executors.newFixedThreadPool(THREADS, ThreadTools.createThreadFactory("edu-classroom-proxy-", true));
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(TILE_PATH, ClassroomProxy::handle);
+        server.createContext(HELLO_PATH, ClassroomProxy::handleHello);
+        server.setExecutor(executor);
+        server.start();
+
+        beacon = Executors.newSingleThreadScheduledExecutor(ThreadTools.createThreadFactory("edu-classroom-proxy-beacon-", true));
+        beacon.scheduleAtFixedRate(() -> announce(port), 0, BEACON_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        logger.info("Classroom proxy started on port {}", port);
+    }
+
+    public static synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+
+        server.stop(0);
+        executor.shutdownNow();
+        beacon.shutdownNow();
+
+        server = null;
+        executor = null;
+        beacon = null;
+
+        synchronized (tiles) {
+            tiles.clear();
+            cachedBytes = 0;
+        }
+
+        logger.info("Classroom proxy stopped");
+    }
+
+    public static synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * @return number of tile requests received by the proxy.
+     */
+    public static long getRequestCount() {
+        synchronized (tiles) {
+            return requests;
+        }
+    }
+
+    /**
+     * @return number of tiles the proxy fetched from the tile servers.
+     */
+    public static long getUpstreamRequestCount() {
+        synchronized (tiles) {
+            return upstreamRequests;
+        }
+    }
+
+    /**
+     * @return size of the tiles cached by the proxy.
+     */
+    public static long getCachedBytes() {
+        synchronized (tiles) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * @return the URI of the tile through the classroom proxy, or null if no proxy is used.
+     */
+    static URI routeTile(URI upstream) {
+        URI proxy = getProxy();
+
+        return proxy == null ? null : proxy.resolve(TILE_PATH + "?uri=" + EduAPI.e(upstream.toString()));
+    }
+
+    /**
+     * Allows the proxy to fetch tiles from the tile server and the mirrors named in the properties of a slide opened on
+     * this computer, if the slide is on the QuPath Edu server this computer is connected to.
+     *
+     * @param slide URI of the slide.
+     */
+    public static void allowTileServers(URI slide, JsonObject properties) {
+        URI host = EduAPI.getHost();
+
+        if (host == null || !getOrigin(host.toString()).equals(getOrigin(slide.toString()))) {
+            return;
+        }
+
+        try {
+            if (properties.has("openslide.remoteserver.uri")) {
+                tileServers.add(getOrigin(properties.get("openslide.remoteserver.uri").getAsString()));
+            }
+
+            if (properties.has("openslide.remoteserver.mirrors")) {
+                JsonElement mirrors = properties.get("openslide.remoteserver.mirrors");
+
+                if (mirrors.isJsonArray()) {
+                    mirrors.getAsJsonArray().forEach(mirror -> tileServers.add(getOrigin(mirror.getAsString())));
+                } else {
+                    Arrays.stream(mirrors.getAsString().split(",")).forEach(mirror -> tileServers.add(getOrigin(mirror.strip())));
+                }
+            }
+        } catch (IllegalStateException | UnsupportedOperationException e) {
+            logger.debug("Unable to read tile servers from slide properties", e);
+        }
+    }
+
+    /**
+     * Bypasses the proxy for a while after it failed.
+     */
+    static void reportFailure(Exception e) {
+        if (!failed) {
+            logger.warn("Classroom proxy failed, fetching directly from the servers: {}", e.getLocalizedMessage());
+        }
+
+        failed = true;
+        failedAt = System.nanoTime();
+        discovered = null;
+    }
+
+    private static URI getProxy() {
+        String setting = EduOptions.classroomProxy().get();
+
+        // Never route through the proxy running in this instance
+        if (setting == null || setting.isBlank() || isRunning()) {
+            return null;
+        }
+
+        if (failed && System.nanoTime() - failedAt < FAILURE_BACKOFF_NANOS) {
+            return null;
+        }
+
+        failed = false;
+
+        if (AUTOMATIC.equalsIgnoreCase(setting.strip())) {
+            if (getClassroomKey() == null) {
+                if (!warnedNoKey) {
+                    logger.warn("Classroom proxy discovery requires a classroom key, fetching directly from the servers");
+                    warnedNoKey = true;
+                }
+
+                return null;
+            }
+
+            startDiscovery();
+
+            return discovered != null && System.nanoTime() - discoveredAt < BEACON_TIMEOUT_NANOS ? discovered : null;
+        }
+
+        try {
+            return URI.create(setting.strip());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /* Proxy */
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            synchronized (tiles) {
+                requests++;
+            }
+
+            URI upstream = getUpstream(exchange);
+
+            if (!"GET".equals(exchange.getRequestMethod()) || upstream == null) {
+                respond(exchange, 400, null);
+            } else {
+                handleTile(exchange, upstream);
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Error in classroom proxy", e);
+        }
+    }
+
+    /**
+     * Answers the challenge of a client with the HMAC of its nonce, keyed with the classroom key.
+     */
+    private static void handleHello(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String query = exchange.getRequestURI().getRawQuery();
+            String key = getClassroomKey();
+
+            if (key == null || query == null || !query.startsWith("nonce=")) {
+                respond(exchange, 404, null);
+            } else {
+                respond(exchange, 200, sign(key, query.substring("nonce=".length())).getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Error in classroom proxy", e);
+        }
+    }
+
+    private static void handleTile(HttpExchange exchange, URI upstream) throws IOException {
+        // The client fetches the tile itself
+        if (!tileServers.contains(getOrigin(upstream.toString()))) {
+            exchange.getResponseHeaders().set("Location", upstream.toString());
+            respond(exchange, 307, null);
+            return;
+        }
+
+        String key = upstream.toString();
+        byte[] data;
+
+        synchronized (tiles) {
+            data = tiles.get(key);
+        }
+
+        try {
+            if (data == null) {
+                data = fetchTile(key, upstream);
+            }
+
+            respond(exchange, 200, data);
+        } catch (IOException e) {
+            respond(exchange, e.getCause() instanceof FileNotFoundException ? 404 : 502, null);
+        }
+    }
+
+    /**
+     * Fetches the tile from upstream once, however many clients request it at the same time.
+     */
+    private static byte[] fetchTile(String key, URI upstream) throws IOException {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, future);
+
+        try {
+            if (existing != null) {
+                return existing.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for tile");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+        }
+
+        try {
+            synchronized (tiles) {
+                upstreamRequests++;
+            }
+
+            byte[] data = EduAPI.downloadTileDirect(upstream, Priority.INTERACTIVE, null);
+            cache(key, data);
+            future.complete(data);
+
+            return data;
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (InterruptedException e) {
+            future.completeExceptionally(e);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching tile");
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    private static void cache(String key, byte[] data) {
+        synchronized (tiles) {
+            byte[] previous = tiles.put(key, data);
+            cachedBytes += data.length - (previous == null ? 0 : previous.length);
+
+            Iterator<byte[]> iterator = tiles.values().iterator();
+
+            while (cachedBytes > MAX_CACHE_BYTES && iterator.hasNext()) {
+                cachedBytes -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return scheme and host of a URI or a URI template, which is not necessarily a valid URI.
+     */
+    private static String getOrigin(String uri) {
+        int authority = uri.indexOf("://");
+        int path = authority < 0 ? -1 : uri.indexOf('/', authority + 3);
+
+        return (path < 0 ? uri : uri.substring(0, path)).toLowerCase(Locale.ROOT);
+    }
+
+    private static URI getUpstream(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+
+        if (query == null || !query.startsWith("uri=")) {
+            return null;
+        }
+
+        try {
+            URI upstream = URI.create(EduAPI.d(query.substring("uri=".length())));
+
+            return "http".equals(upstream.getScheme()) || "https".equals(upstream.getScheme()) ? upstream : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /* Authentication */
+
+    private static String getClassroomKey() {
+        String key = EduOptions.classroomProxyKey().get();
+
+        return key == null || key.isBlank() ? null : key.strip();
+    }
+
+    private static String sign(String key, String nonce) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+
+            return HexFormat.of().formatHex(mac.doFinal(nonce.getBytes(StandardCharsets.US_ASCII)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /**
+     * @return true if the proxy knows the classroom key.
+     */
+    private static boolean verify(URI proxy) {
+        String key = getClassroomKey();
+
+        if (key == null) {
+            return false;
+        }
+
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String nonce = HexFormat.of().formatHex(bytes);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .GET()
+                .uri(proxy.resolve(HELLO_PATH + "?nonce=" + nonce))
+                .timeout(CHALLENGE_TIMEOUT)
+                .build();
+
+        try {
+            HttpResponse<String> response = EduAPI.send(request, HttpResponse.BodyHandlers.ofString(), Priority.INTERACTIVE);
+
+            return response.statusCode() == 200 && MessageDigest.isEqual(
+                sign(key, nonce).getBytes(StandardCharsets.US_ASCII),
+                response.body().strip().getBytes(StandardCharsets.US_ASCII)
+            );
+        } catch (IOException e) {
+            logger.debug("Unable to verify classroom proxy {}", proxy, e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /* Discovery */
+
+    private static void announce(int port) {
+        byte[] message = (BEACON_PREFIX + port).getBytes(StandardCharsets.US_ASCII);
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setBroadcast(true);
+            socket.send(new DatagramPacket(message, message.length, InetAddress.getByName("255.255.255.255"), DISCOVERY_PORT));
+        } catch (IOException e) {
+            logger.debug("Unable to announce classroom proxy", e);
+        }
+    }
+
+    private static synchronized void startDiscovery() {
+        if (discoveryListener != null) {
+            return;
+        }
+
+        discoveryListener = new Thread(ClassroomProxy::listen, "edu-classroom-proxy-discovery");
+        discoveryListener.setDaemon(true);
+        discoveryListener.start();
+    }
+
+    private static void listen() {
+        try (DatagramSocket socket = new DatagramSocket(null)) {
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(DISCOVERY_PORT));
+
+            byte[] buffer = new byte[64];
+
+            while (!Thread.currentThread().isInterrupted()) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+
+                String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.US_ASCII);
+
+                if (!message.startsWith(BEACON_PREFIX)) {
+                    continue;
+                }
+
+                try {
+                    int port = Integer.parseInt(message.substring(BEACON_PREFIX.length()).strip());
+                    URI proxy = new URI("http", null, packet.getAddress().getHostAddress(), port, "/", null, null);
+
+                    if (!proxy.equals(discovered)) {
+                        if (!verify(proxy)) {
+                            logger.debug("Ignoring classroom proxy {} which does not know the classroom key", proxy);
+                            continue;
+                        }
+
+                        logger.info("Found classroom proxy {}", proxy);
+                        discovered = proxy;
+                    }
+
+                    discoveredAt = System.nanoTime();
+                } catch (NumberFormatException | URISyntaxException e) {
+                    logger.debug("Invalid classroom proxy announcement: {}", message);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to listen for classroom proxy announcements", e);
+        }
+    }
+}
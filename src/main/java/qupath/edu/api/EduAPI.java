@@ -5,11 +5,14 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qupath.edu.api.NetworkScheduler.Priority;
 import qupath.edu.exceptions.HttpException;
 import qupath.edu.models.*;
 import qupath.edu.util.VersionAdapter;
@@ -20,8 +23,13 @@ import qupath.lib.io.GsonTools;
 import qupath.lib.projects.Project;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.math.BigInteger;
 import java.net.URI;
 import java.net.URLDecoder;
@@ -30,11 +38,15 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 /*
@@ -147,6 +159,8 @@ public class EduAPI {
 				EduAPI.host = URI.create(host);
 			} catch (IllegalArgumentException ignored) {}
 		}
+
+		responseCache.clear();
 	}
 
 	public static URI getHost() {
@@ -179,6 +193,7 @@ public class EduAPI {
 
 		EduAPI.username = username;
 		EduAPI.password = password;
+		responseCache.clear();
 	}
 
 	public static String getToken() {
@@ -197,6 +212,7 @@ public class EduAPI {
 		}
 
 		EduAPI.token = token;
+		responseCache.clear();
 	}
 
 	private static void setUser(ExternalUser user) {
@@ -236,8 +252,8 @@ public class EduAPI {
 		return roles.contains(Roles.ADMIN) || roles.contains(role);
 	}
 
-	private static final Map<String, Boolean> writePermissionCache = new HashMap<>();
-	private static final Map<String, Boolean> readPermissionCache = new HashMap<>();
+	private static final Map<String, Boolean> writePermissionCache = new ConcurrentHashMap<>();
+	private static final Map<String, Boolean> readPermissionCache = new ConcurrentHashMap<>();
 
 	/**
 	 * This method checks if the user is authorized to edit a given resource (workspace, subject, project).
@@ -269,6 +285,36 @@ public class EduAPI {
 		return result;
 	}
 
+	/**
+	 * Returns the write permission for the given resource if it is known without making a request, e.g. because it
+	 * has been checked with {@link #hasWritePermission(String)} before.
+	 *
+	 * @param id workspace, subject or project id.
+	 * @return the write permission, or empty if not known.
+	 */
+	public static Optional<Boolean> getKnownWritePermission(String id) {
+		if (!getAuthType().shouldPrompt()) {
+			return Optional.of(false);
+		}
+
+		if (hasRole(Roles.ADMIN)) {
+			return Optional.of(true);
+		}
+
+		return Optional.ofNullable(writePermissionCache.get(id));
+	}
+
+	/**
+	 * Checks the write permission for the given resource again, e.g. because it may have changed on the server.
+	 *
+	 * @see #hasWritePermission(String)
+	 */
+	public static boolean refreshWritePermission(String id) {
+		writePermissionCache.remove(id);
+
+		return hasWritePermission(id);
+	}
+
 	public static boolean hasReadPermission(String id) {
 		if (readPermissionCache.containsKey(id)) {
 			return readPermissionCache.get(id);
@@ -356,6 +402,7 @@ public class EduAPI {
 		roles.clear();
 		writePermissionCache.clear();
 		readPermissionCache.clear();
+		WorkspaceCache.invalidate();
 	}
 
 	/* Password */
@@ -383,14 +430,23 @@ public class EduAPI {
 	/* Users */
 
 	public static List<ExternalUser> getAllUsers() {
-		var response = get("/api/v0/users");
+		List<ExternalUser> users = new ArrayList<>();
 
 		// TODO: 401 response is technically not an invalid response.
-		if (isInvalidResponse(response)) {
+		if (!getArray("/api/v0/users", ExternalUser.class, users::add)) {
 			return Collections.emptyList();
 		}
 
-		return List.of(GsonTools.getInstance().fromJson(response.get().body(), ExternalUser[].class));
+		return Collections.unmodifiableList(users);
+	}
+
+	/**
+	 * Streams all users to the consumer as they are parsed from the response.
+	 *
+	 * @return true if the request was successful.
+	 */
+	public static boolean getAllUsers(Consumer<ExternalUser> consumer) {
+		return getArray("/api/v0/users", ExternalUser.class, consumer);
 	}
 
 	public static boolean editUser(String id, Map<String, Object> data) {
@@ -479,6 +535,10 @@ public class EduAPI {
 		return Optional.of(response.get().body());
 	}
 
+	/**
+	 * Uploads the lesson. Lessons are synced when they are saved, which the user waits for, so the upload is not
+	 * shaped like background requests.
+	 */
 	public static Result uploadProject(String projectId, String projectData) {
 		var response = post(
 			"/api/v0/projects/" + e(projectId),
@@ -557,13 +617,23 @@ public class EduAPI {
 	/* Slides */
 
 	public static List<ExternalSlide> getAllSlides() {
-		var response = get("/api/v0/slides/");
+		List<ExternalSlide> slides = new ArrayList<>();
 
-		if (isInvalidResponse(response)) {
+		if (!getArray("/api/v0/slides/", ExternalSlide.class, slides::add)) {
 			return Collections.emptyList();
 		}
 
-		return List.of(GsonTools.getInstance().fromJson(response.get().body(), ExternalSlide[].class));
+		return Collections.unmodifiableList(slides);
+	}
+
+	/**
+	 * Streams all slides to the consumer as they are parsed from the response, so that the first slides can be shown
+	 * before the whole list has been downloaded.
+	 *
+	 * @return true if the request was successful.
+	 */
+	public static boolean getAllSlides(Consumer<ExternalSlide> consumer) {
+		return getArray("/api/v0/slides/", ExternalSlide.class, consumer);
 	}
 
 	public static Optional<JsonObject> getSlideProperties(URI uri) {
@@ -606,12 +676,20 @@ public class EduAPI {
 		return isInvalidResponse(response) ? Result.FAIL : Result.OK;
 	}
 
-	public static Result uploadSlideChunk(String fileName, long fileSize, byte[] buffer, int chunkSize, int chunkIndex) throws IOException, InterruptedException {
+	/**
+	 * Uploads a single chunk of a slide. The chunk is streamed directly from the file channel.
+	 *
+	 * @param channel channel of the slide file, which must stay open until this method returns.
+	 * @param chunkSize size of every chunk except possibly the last one. The chunk is read from chunkIndex * chunkSize.
+	 */
+	public static Result uploadSlideChunk(String fileName, long fileSize, FileChannel channel, int chunkSize, int chunkIndex) throws IOException, InterruptedException {
+		long position = (long) chunkIndex * chunkSize;
+		long length = Math.min(chunkSize, fileSize - position);
+
 		String boundary = new BigInteger(256, new Random()).toString();
 		Map<Object, Object> data = new LinkedHashMap<>();
-		data.put("file", buffer);
+		data.put("file", new FileRegionBodyPublisher(channel, position, length));
 
-		HttpClient client = getHttpClient();
 		HttpRequest.Builder builder = HttpRequest.newBuilder()
 			.uri(getSlideUploadURL(fileName, fileSize, chunkIndex, chunkSize))
 			.POST(ofMimeMultipartData(data, boundary))
@@ -620,7 +698,9 @@ public class EduAPI {
 		addAuthorization(builder);
 		HttpRequest request = builder.build();
 
-		HttpResponse<String> response = client.send(request, BodyHandlers.ofString());
+		responseCache.invalidate("/api/v0/slides");
+
+		HttpResponse<String> response = send(request, BodyHandlers.ofString(), Priority.BACKGROUND);
 		return isInvalidResponse(Optional.of(response)) ? Result.FAIL : Result.OK;
 	}
 
@@ -639,6 +719,15 @@ public class EduAPI {
 	 * @return formatted string as a URI.
 	 */
 	public static URI getRenderRegionURL(String uri, String slideId, int tileX, int tileY, int level, int tileWidth, int tileHeight, int depth) {
+		return getRenderRegionURL(uri, slideId, tileX, tileY, level, tileWidth, tileHeight, depth, TileQuality.FULL);
+	}
+
+	/**
+	 * Formats the URI by replacing placeholders with proper values. The <code>{quality}</code> and <code>{format}</code>
+	 * placeholders are optional.
+	 * @return formatted string as a URI.
+	 */
+	public static URI getRenderRegionURL(String uri, String slideId, int tileX, int tileY, int level, int tileWidth, int tileHeight, int depth, TileQuality quality) {
 		return URI.create(uri
 				.replace("{slideId}", e(slideId))
 				.replace("{tileX}", String.valueOf(tileX))
@@ -647,9 +736,66 @@ public class EduAPI {
 				.replace("{tileWidth}", String.valueOf(tileWidth))
 				.replace("{tileHeight}", String.valueOf(tileHeight))
 				.replace("{depth}", String.valueOf(depth))
+				.replace("{quality}", String.valueOf(quality.getQuality()))
+				.replace("{format}", quality.getFormat())
 		);
 	}
 
+	/**
+	 * Downloads a tile or region from a tile server, through the {@link ClassroomProxy} if one is used.
+	 *
+	 * @param uri render region URI, see {@link #getRenderRegionURL(String, String, int, int, int, int, int, int)}.
+	 * @param priority class of the request, see {@link NetworkScheduler}.
+	 * @return the encoded image.
+	 * @throws IOException if the request failed; if the tile server has no such tile, the cause is a {@link FileNotFoundException}.
+	 */
+	public static byte[] downloadTile(URI uri, Priority priority) throws IOException, InterruptedException {
+		return downloadTile(uri, priority, null);
+	}
+
+	/**
+	 * @param exchange receives the nanoseconds taken by the network exchange of the successful request, i.e. without
+	 *                 the time spent waiting for the {@link NetworkScheduler}; may be null.
+	 * @see #downloadTile(URI, Priority)
+	 */
+	public static byte[] downloadTile(URI uri, Priority priority, LongConsumer exchange) throws IOException, InterruptedException {
+		URI proxied = ClassroomProxy.routeTile(uri);
+
+		if (proxied != null) {
+			try {
+				return downloadTileDirect(proxied, priority, exchange);
+			} catch (IOException e) {
+				if (e.getCause() instanceof FileNotFoundException) {
+					throw e;
+				}
+
+				ClassroomProxy.reportFailure(e);
+			}
+		}
+
+		return downloadTileDirect(uri, priority, exchange);
+	}
+
+	/**
+	 * Downloads a tile or region without routing the request through the {@link ClassroomProxy}.
+	 */
+	static byte[] downloadTileDirect(URI uri, Priority priority, LongConsumer exchange) throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder()
+			.uri(uri)
+			.timeout(Duration.ofSeconds(30))
+			.build();
+
+		HttpResponse<byte[]> response = send(request, BodyHandlers.ofByteArray(), priority, exchange);
+
+		if (response.statusCode() == 404) {
+			throw new IOException("Tile not found: " + uri, new FileNotFoundException(uri.toString()));
+		} else if (response.statusCode() < 200 || response.statusCode() > 300) {
+			throw new IOException("Error when downloading tile " + uri + ": HTTP " + response.statusCode());
+		}
+
+		return response.body();
+	}
+
 	/* Workspaces */
 
 	public static Optional<ExternalWorkspace> getWorkspace(String id) {
@@ -663,13 +809,13 @@ public class EduAPI {
 	}
 
 	public static List<ExternalWorkspace> getAllWorkspaces() {
-		var response = get("/api/v0/workspaces");
+		List<ExternalWorkspace> workspaces = new ArrayList<>();
 
-		if (isInvalidResponse(response)) {
+		if (!getArray("/api/v0/workspaces", ExternalWorkspace.class, workspaces::add)) {
 			throw new HttpException("Error while fetching workspaces.");
 		}
 
-		return List.of(GsonTools.getInstance().fromJson(response.get().body(), ExternalWorkspace[].class));
+		return Collections.unmodifiableList(workspaces);
 	}
 
 	public static Result createWorkspace(String workspaceName) {
@@ -721,13 +867,13 @@ public class EduAPI {
 	/* Organizations */
 
 	public static Optional<List<ExternalOrganization>> getAllOrganizations() {
-		var response = get("/api/v0/organizations");
+		List<ExternalOrganization> organizations = new ArrayList<>();
 
-		if (isInvalidResponse(response)) {
+		if (!getArray("/api/v0/organizations", ExternalOrganization.class, organizations::add)) {
 			return Optional.empty();
 		}
 
-		return Optional.of(List.of(GsonTools.getInstance().fromJson(response.get().body(), ExternalOrganization[].class)));
+		return Optional.of(Collections.unmodifiableList(organizations));
 	}
 
 	public static Optional<ExternalOrganization> createOrganization(String name) {
@@ -759,7 +905,6 @@ public class EduAPI {
 				data.put("logo", Files.readAllBytes(logo.toPath()));
 			}
 
-			HttpClient client = getHttpClient();
 			HttpRequest.Builder builder = HttpRequest.newBuilder()
 					.uri(host.resolve("/api/v0/organizations/" + e(id)))
 					.method("PATCH", ofMimeMultipartData(data, boundary))
@@ -768,7 +913,9 @@ public class EduAPI {
 			addAuthorization(builder);
 			HttpRequest request = builder.build();
 
-			HttpResponse<String> response = client.send(request, BodyHandlers.ofString());
+			responseCache.invalidate("/api/v0/organizations/" + e(id));
+
+			HttpResponse<String> response = send(request, BodyHandlers.ofString(), Priority.INTERACTIVE);
 
 			return !(isInvalidResponse(Optional.of(response)));
 		} catch (IOException | InterruptedException e) {
@@ -781,13 +928,13 @@ public class EduAPI {
 	/* Backups */
 
 	public static Optional<List<ExternalBackup>> getAllBackups() {
-		var response = get("/api/v0/backups");
+		List<ExternalBackup> backups = new ArrayList<>();
 
-		if (isInvalidResponse(response)) {
+		if (!getArray("/api/v0/backups", ExternalBackup.class, backups::add)) {
 			return Optional.empty();
 		}
 
-		return Optional.of(List.of(GsonTools.getInstance().fromJson(response.get().body(), ExternalBackup[].class)));
+		return Optional.of(Collections.unmodifiableList(backups));
 	}
 
 	public static boolean restoreBackup(String backup, String timestamp) {
@@ -818,23 +965,103 @@ public class EduAPI {
 
 	private static Optional<HttpResponse<String>> get(String path, URI host) {
 		try {
-			HttpClient client = getHttpClient();
 			HttpRequest.Builder builder = HttpRequest.newBuilder()
 				.uri(host.resolve(path));
 
 			addAuthorization(builder);
+
+			String cacheKey = ResponseCache.isCacheable(path) ? getCacheKey(host, path) : null;
+			Optional<ResponseCache.Entry> cached = cacheKey == null ? Optional.empty() : responseCache.get(cacheKey);
+			cached.ifPresent(entry -> entry.addValidators(builder));
+
 			HttpRequest request = builder.build();
+			HttpResponse<String> response = send(request, BodyHandlers.ofString(), Priority.INTERACTIVE);
+
+			if (cacheKey != null) {
+				if (response.statusCode() == 304 && cached.isPresent()) {
+					return Optional.of(new ResponseCache.CachedResponse(response, cached.get().bodyAsString()));
+				}
+
+				if (response.statusCode() == 200) {
+					responseCache.put(cacheKey, path, response.headers(), response.body().getBytes(StandardCharsets.UTF_8));
+				}
+			} else if (ResponseCache.isMutating(path)) {
+				responseCache.invalidate(path);
+			}
 
-			return Optional.of(client.send(request, BodyHandlers.ofString()));
+			return Optional.of(response);
 		} catch (IOException | InterruptedException e) {
 			logger.error("Error when making HTTP GET request", e);
 			throw new HttpException(e);
 		}
 	}
 
+	/**
+	 * Makes a GET request for a JSON array and parses it element by element straight from the response stream,
+	 * without first reading the whole body into a string.
+	 *
+	 * @param consumer receives each element as soon as it has been parsed, on the calling thread.
+	 * @return true if the request was successful, false if the server responded with an error.
+	 * @throws HttpException if the request failed or the response could not be parsed.
+	 */
+	private static <T> boolean getArray(String path, Class<T> type, Consumer<? super T> consumer) {
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder()
+				.uri(host.resolve(path));
+
+			addAuthorization(builder);
+
+			String cacheKey = getCacheKey(host, path);
+			Optional<ResponseCache.Entry> cached = responseCache.get(cacheKey);
+			cached.ifPresent(entry -> entry.addValidators(builder));
+
+			HttpRequest request = builder.build();
+
+			HttpResponse<InputStream> response = send(request, BodyHandlers.ofInputStream(), Priority.INTERACTIVE);
+			ByteArrayOutputStream copy = null;
+
+			try (InputStream stream = response.body()) {
+				InputStream body = stream;
+
+				if (response.statusCode() == 304 && cached.isPresent()) {
+					body = new ByteArrayInputStream(cached.get().body());
+				} else if (response.statusCode() < 200 || response.statusCode() > 300) {
+					logger.error("Invalid HTTP Response: [Path: {}, Status: {}, Body: {}]",
+							path, response.statusCode(), new String(body.readAllBytes(), StandardCharsets.UTF_8));
+
+					return false;
+				} else if (response.statusCode() == 200 && ResponseCache.hasValidators(response.headers())) {
+					copy = new ByteArrayOutputStream();
+					body = ResponseCache.recording(stream, copy);
+				}
+
+				Gson gson = GsonTools.getInstance();
+				TypeAdapter<T> adapter = gson.getAdapter(type);
+
+				try (JsonReader reader = gson.newJsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+					reader.beginArray();
+
+					while (reader.hasNext()) {
+						consumer.accept(adapter.read(reader));
+					}
+
+					reader.endArray();
+				}
+			}
+
+			if (copy != null) {
+				responseCache.put(cacheKey, path, response.headers(), copy.toByteArray());
+			}
+
+			return true;
+		} catch (IOException | InterruptedException | JsonParseException | IllegalStateException e) {
+			logger.error("Error when making HTTP GET request", e);
+			throw new HttpException(e);
+		}
+	}
+
 	private static Optional<HttpResponse<String>> post(String path, Map<Object, Object> data) {
 		try {
-			HttpClient client = getHttpClient();
 			HttpRequest.Builder builder = HttpRequest.newBuilder()
 				.POST(ofFormData(data))
 				.uri(host.resolve(path))
@@ -843,7 +1070,9 @@ public class EduAPI {
 			addAuthorization(builder);
 			HttpRequest request = builder.build();
 
-			return Optional.of(client.send(request, BodyHandlers.ofString()));
+			responseCache.invalidate(path);
+
+			return Optional.of(send(request, BodyHandlers.ofString(), Priority.INTERACTIVE));
 		} catch (Exception e) {
 			logger.error("Error when making HTTP POST request", e);
 			throw new HttpException(e);
@@ -852,7 +1081,6 @@ public class EduAPI {
 
 	private static Optional<HttpResponse<String>> delete(String path) {
 		try {
-			HttpClient client = getHttpClient();
 			HttpRequest.Builder builder = HttpRequest.newBuilder()
 				.DELETE()
 				.uri(host.resolve(path));
@@ -860,7 +1088,9 @@ public class EduAPI {
 			addAuthorization(builder);
 			HttpRequest request = builder.build();
 
-			return Optional.of(client.send(request, BodyHandlers.ofString()));
+			responseCache.invalidate(path);
+
+			return Optional.of(send(request, BodyHandlers.ofString(), Priority.INTERACTIVE));
 		} catch (IOException | InterruptedException e) {
 			logger.error("Error when making HTTP DELETE request", e);
 			throw new HttpException(e);
@@ -877,7 +1107,6 @@ public class EduAPI {
 
 	private static Optional<HttpResponse<String>> putOrPatch(String path, Map<?, ?> data, String method) {
 		try {
-			HttpClient client = getHttpClient();
 			HttpRequest.Builder builder = HttpRequest.newBuilder()
 					.method(method, ofFormData((Map<Object, Object>) data))
 					.uri(host.resolve(path))
@@ -887,13 +1116,54 @@ public class EduAPI {
 
 			HttpRequest request = builder.build();
 
-			return Optional.of(client.send(request, BodyHandlers.ofString()));
+			responseCache.invalidate(path);
+
+			return Optional.of(send(request, BodyHandlers.ofString(), Priority.INTERACTIVE));
 		} catch (IOException | InterruptedException e) {
 			logger.error("Error when making HTTP " + method + " request", e);
 			throw new HttpException(e);
 		}
 	}
 
+	/**
+	 * Sends the request once the {@link NetworkScheduler} lets a request of the given class start. The bodies of
+	 * background requests are also shaped as they are sent and received, see {@link ShapedBodies}.
+	 */
+	static <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler, Priority priority) throws IOException, InterruptedException {
+		return send(request, handler, priority, null);
+	}
+
+	/**
+	 * @param exchange receives the nanoseconds taken by the network exchange, i.e. without the time spent waiting for
+	 *                 the {@link NetworkScheduler}; may be null.
+	 */
+	static <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler, Priority priority, LongConsumer exchange) throws IOException, InterruptedException {
+		NetworkScheduler.acquire(priority);
+
+		try {
+			if (priority == Priority.BACKGROUND) {
+				if (request.bodyPublisher().isPresent()) {
+					request = HttpRequest.newBuilder(request, (name, value) -> true)
+						.method(request.method(), ShapedBodies.publisher(request.bodyPublisher().get(), priority))
+						.build();
+				}
+
+				handler = ShapedBodies.handler(handler, priority);
+			}
+
+			long start = System.nanoTime();
+			HttpResponse<T> response = getHttpClient().send(request, handler);
+
+			if (exchange != null) {
+				exchange.accept(System.nanoTime() - start);
+			}
+
+			return response;
+		} finally {
+			NetworkScheduler.release(priority);
+		}
+	}
+
 	private static void addAuthorization(HttpRequest.Builder builder) {
 		if (getAuthType() == AuthType.USERNAME) {
 			builder.headers("Authorization", basicAuth(username, password));
@@ -902,12 +1172,31 @@ public class EduAPI {
 		}
 	}
 
+	/**
+	 * Shared between requests, so that connections are pooled and reused, e.g. when uploading chunks in parallel.
+	 */
+	private static final HttpClient httpClient = HttpClient.newBuilder()
+			.connectTimeout(Duration.ofSeconds(5))
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.version(HttpClient.Version.HTTP_1_1)
+			.build();
+
+	private static final ResponseCache responseCache = new ResponseCache();
+
 	private static HttpClient getHttpClient() {
-		return HttpClient.newBuilder()
-				.connectTimeout(Duration.ofSeconds(5))
-				.followRedirects(HttpClient.Redirect.NORMAL)
-				.version(HttpClient.Version.HTTP_1_1)
-				.build();
+		return httpClient;
+	}
+
+	/**
+	 * Responses depend on the permissions of the user, so the key includes the credentials.
+	 */
+	private static String getCacheKey(URI host, String path) {
+		return String.join("|",
+			host.resolve(path).toString(),
+			String.valueOf(authType),
+			String.valueOf(username),
+			String.valueOf(Objects.hashCode(token))
+		);
 	}
 
 	private static HttpRequest.BodyPublisher ofFormData(Map<Object, Object> data) {
@@ -933,7 +1222,12 @@ public class EduAPI {
 
 	private static final String LINE_FEED = "\r\n";
 
+	/**
+	 * Builds a multipart body. Values can be paths, byte arrays, {@link FileRegionBodyPublisher}s or anything else,
+	 * which is sent as a string. File regions are streamed from disk instead of being read into memory.
+	 */
 	private static HttpRequest.BodyPublisher ofMimeMultipartData(Map<Object, Object> data, String boundary) throws IOException {
+		var publishers = new ArrayList<HttpRequest.BodyPublisher>();
 		var byteArrays = new ArrayList<byte[]>();
 		byte[] separator = ("--" + boundary + LINE_FEED + "Content-Disposition: form-data; name=").getBytes();
 
@@ -952,6 +1246,16 @@ public class EduAPI {
 						+ LINE_FEED + "Content-Type: application/octet-stream").getBytes());
 				byteArrays.add((LINE_FEED + LINE_FEED).getBytes());
 				byteArrays.add((byte[]) entry.getValue());
+				byteArrays.add(LINE_FEED.getBytes());
+			} else if (entry.getValue() instanceof FileRegionBodyPublisher region) {
+				byteArrays.add(("\"" + entry.getKey() + "\"; filename=\"unnamed\""
+						+ LINE_FEED + "Content-Type: application/octet-stream").getBytes());
+				byteArrays.add((LINE_FEED + LINE_FEED).getBytes());
+
+				publishers.add(HttpRequest.BodyPublishers.ofByteArray(concat(byteArrays)));
+				publishers.add(region);
+				byteArrays.clear();
+
 				byteArrays.add(LINE_FEED.getBytes());
 			} else {
 				byteArrays.add(("\"" + entry.getKey() + "\"").getBytes());
@@ -961,7 +1265,27 @@ public class EduAPI {
 		}
 
 		byteArrays.add(("--" + boundary + "--").getBytes());
-		return HttpRequest.BodyPublishers.ofByteArrays(byteArrays);
+
+		if (publishers.isEmpty()) {
+			return HttpRequest.BodyPublishers.ofByteArrays(byteArrays);
+		}
+
+		// The framing is joined into single arrays, so that the total content length is known.
+		publishers.add(HttpRequest.BodyPublishers.ofByteArray(concat(byteArrays)));
+
+		return HttpRequest.BodyPublishers.concat(publishers.toArray(HttpRequest.BodyPublisher[]::new));
+	}
+
+	private static byte[] concat(List<byte[]> byteArrays) {
+		byte[] result = new byte[byteArrays.stream().mapToInt(array -> array.length).sum()];
+		int position = 0;
+
+		for (byte[] array : byteArrays) {
+			System.arraycopy(array, 0, result, position, array.length);
+			position += array.length;
+		}
+
+		return result;
 	}
 
 	/**
@@ -0,0 +1,128 @@
+package qupath.edu.api;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request body publisher which streams a region of a file without copying it to the heap.
+ * <p>
+ * The region is memory-mapped when a subscriber subscribes and published as read-only slices of the mapping, so
+ * the bytes are read from the page cache directly into the socket. Memory use does not depend on the size of the
+ * region. Each subscription maps the region again, so the publisher can be reused when a request is retried.
+ */
+public class FileRegionBodyPublisher implements HttpRequest.BodyPublisher {
+
+    private static final int SLICE_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long position;
+    private final long length;
+
+    /**
+     * @param channel channel to read from; must stay open until the request has completed.
+     * @param position position of the first byte of the region.
+     * @param length length of the region in bytes.
+     */
+    public FileRegionBodyPublisher(FileChannel channel, long position, long length) {
+        this.channel = channel;
+        this.position = position;
+        this.length = length;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        MappedByteBuffer region;
+
+        try {
+            region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        } catch (IOException e) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {}
+
+                @Override
+                public void cancel() {}
+            });
+
+            subscriber.onError(e);
+            return;
+        }
+
+        subscriber.onSubscribe(new RegionSubscription(subscriber, region));
+    }
+
+    private static class RegionSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final ByteBuffer region;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        /**
+         * Guards against reentrant calls, as subscribers may call request(...) from within onNext(...).
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean done = false;
+
+        private RegionSubscription(Flow.Subscriber<? super ByteBuffer> subscriber, ByteBuffer region) {
+            this.subscriber = subscriber;
+            this.region = region;
+        }
+
+        @Override
+        public void request(long n) {
+            if (done) {
+                return;
+            }
+
+            if (n <= 0) {
+                done = true;
+                subscriber.onError(new IllegalArgumentException("Requested a non-positive number of items: " + n));
+                return;
+            }
+
+            demand.getAndAccumulate(n, (current, requested) -> current + requested < 0 ? Long.MAX_VALUE : current + requested);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            do {
+                while (!done && demand.get() > 0 && region.hasRemaining()) {
+                    int size = Math.min(SLICE_SIZE, region.remaining());
+                    ByteBuffer slice = region.slice(region.position(), size).asReadOnlyBuffer();
+
+                    region.position(region.position() + size);
+                    demand.decrementAndGet();
+
+                    subscriber.onNext(slice);
+                }
+
+                if (!done && !region.hasRemaining()) {
+                    done = true;
+                    subscriber.onComplete();
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package qupath.edu.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules all requests made by QuPath Edu, so that interactive viewing always wins over everything else using
+ * the network.
+ * <p>
+ * Every request belongs to a {@link Priority} class, which limits how many requests of the class run at once. A
+ * request only starts when no request of a higher class is waiting. While tiles are being viewed, background
+ * requests are also limited to {@link #BACKGROUND_BYTES_PER_SECOND_WHILE_VIEWING}, so that e.g. a lesson being synced
+ * or a slide being uploaded does not saturate the connection mid-lecture.
+ */
+public class NetworkScheduler {
+
+    private final static Logger logger = LoggerFactory.getLogger(NetworkScheduler.class);
+
+    public enum Priority {
+
+        /**
+         * Tiles shown in the viewers, and requests the user is waiting for.
+         */
+        INTERACTIVE(64),
+
+        /**
+         * Tiles read ahead of the viewers or by commands, e.g. analysis.
+         */
+        PREFETCH(8),
+
+        THUMBNAIL(4),
+
+        /**
+         * Uploading slides and exporting lessons.
+         */
+        BACKGROUND(4);
+
+        private final int maxConcurrent;
+
+        Priority(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+    }
+
+    /**
+     * Background requests are shaped for this long after the last tile request.
+     */
+    private static final long VIEWING_TIMEOUT_NANOS = 2_000_000_000L;
+
+    private static final double BACKGROUND_BYTES_PER_SECOND_WHILE_VIEWING = 512 * 1024;
+
+    private static final Object lock = new Object();
+
+    private static final int[] running = new int[Priority.values().length];
+    private static final int[] waiting = new int[Priority.values().length];
+
+    private static long lastViewingRequest = System.nanoTime() - VIEWING_TIMEOUT_NANOS;
+
+    private static final UploadBudget backgroundBandwidth = new UploadBudget(Integer.MAX_VALUE, 0);
+    private static boolean shaping = false;
+
+    private NetworkScheduler() {}
+
+    /**
+     * Waits until a request of the given class may start. Every call must be followed by {@link #release(Priority)}.
+     */
+    static void acquire(Priority priority) throws InterruptedException {
+        int index = priority.ordinal();
+
+        synchronized (lock) {
+            if (priority == Priority.INTERACTIVE || priority == Priority.PREFETCH) {
+                lastViewingRequest = System.nanoTime();
+            }
+
+            waiting[index]++;
+
+            try {
+                while (!canStart(priority)) {
+                    lock.wait();
+                }
+            } finally {
+                waiting[index]--;
+            }
+
+            running[index]++;
+        }
+    }
+
+    static void release(Priority priority) {
+        synchronized (lock) {
+            running[priority.ordinal()]--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Takes bytes sent or received by a request of the given class from the bandwidth budget. Only background
+     * requests are shaped, and only while tiles are being viewed.
+     *
+     * @return nanoseconds to wait before the request may send or receive more bytes.
+     */
+    static long shape(Priority priority, long bytes) {
+        if (priority != Priority.BACKGROUND || bytes <= 0) {
+            return 0;
+        }
+
+        synchronized (lock) {
+            boolean viewing = System.nanoTime() - lastViewingRequest < VIEWING_TIMEOUT_NANOS;
+
+            if (viewing != shaping) {
+                shaping = viewing;
+                backgroundBandwidth.setBytesPerSecond(viewing ? BACKGROUND_BYTES_PER_SECOND_WHILE_VIEWING : 0);
+
+                logger.debug("Background requests are {}", viewing ? "shaped while viewing tiles" : "no longer shaped");
+            }
+        }
+
+        return backgroundBandwidth.reserve(bytes);
+    }
+
+    public static int getRunning(Priority priority) {
+        synchronized (lock) {
+            return running[priority.ordinal()];
+        }
+    }
+
+    public static int getWaiting(Priority priority) {
+        synchronized (lock) {
+            return waiting[priority.ordinal()];
+        }
+    }
+
+    private static boolean canStart(Priority priority) {
+        if (running[priority.ordinal()] >= priority.maxConcurrent) {
+            return false;
+        }
+
+        for (int i = 0; i < priority.ordinal(); i++) {
+            if (waiting[i] > 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,259 @@
+package qupath.edu.api;
+
+import javax.net.ssl.SSLSession;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Cache for GET responses which the server marked with an <code>ETag</code> or <code>Last-Modified</code> header.
+ * <p>
+ * A cached response is revalidated with <code>If-None-Match</code> or <code>If-Modified-Since</code> on every request,
+ * so the cache never serves stale data: the server either responds with <code>304 Not Modified</code> and an empty
+ * body, in which case the cached body is used, or with a new body which replaces the cached one. Requests which
+ * modify resources invalidate the cached responses of the resources they may affect.
+ */
+class ResponseCache {
+
+    private static final long MAX_CACHE_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Paths which are cached. Login, permission checks and server information are always fetched.
+     */
+    private static final List<String> CACHEABLE_PATHS = List.of(
+        "/api/v0/workspaces",
+        "/api/v0/slides",
+        "/api/v0/users",
+        "/api/v0/organizations",
+        "/api/v0/backups",
+        "/api/v0/projects/"
+    );
+
+    /**
+     * Restoring a backup is a GET request which modifies resources.
+     */
+    private static final List<String> MUTATING_GET_PATHS = List.of(
+        "/api/v0/backups/restore/"
+    );
+
+    /**
+     * Cached paths invalidated by requests modifying a path. Courses and lessons are included in the workspace
+     * listings, users include their organization and a restored backup may change any lesson.
+     */
+    private static final Map<String, List<String>> INVALIDATED_PATHS = Map.of(
+        "/api/v0/workspaces", List.of("/api/v0/workspaces"),
+        "/api/v0/subjects", List.of("/api/v0/workspaces"),
+        "/api/v0/projects", List.of("/api/v0/workspaces", "/api/v0/projects/"),
+        "/api/v0/slides", List.of("/api/v0/slides"),
+        "/api/v0/users", List.of("/api/v0/users"),
+        "/api/v0/organizations", List.of("/api/v0/organizations", "/api/v0/users"),
+        "/api/v0/backups", List.of("/api/v0/backups", "/api/v0/workspaces", "/api/v0/projects/")
+    );
+
+    record Entry(String path, String etag, String lastModified, byte[] body) {
+
+        void addValidators(HttpRequest.Builder builder) {
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
+            }
+
+            if (lastModified != null) {
+                builder.header("If-Modified-Since", lastModified);
+            }
+        }
+
+        String bodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Entries in access order, so that the least recently used entries are evicted first.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    static boolean isCacheable(String path) {
+        return startsWithAny(path, CACHEABLE_PATHS) && !startsWithAny(path, MUTATING_GET_PATHS);
+    }
+
+    static boolean isMutating(String path) {
+        return startsWithAny(path, MUTATING_GET_PATHS);
+    }
+
+    /**
+     * @return true if the response headers contain a validator, i.e. the response can be stored.
+     */
+    static boolean hasValidators(HttpHeaders headers) {
+        return headers.firstValue("ETag").isPresent() || headers.firstValue("Last-Modified").isPresent();
+    }
+
+    synchronized Optional<Entry> get(String key) {
+        return Optional.ofNullable(entries.get(key));
+    }
+
+    /**
+     * Stores the body of a successful response, or removes the previous entry if the response has no validators.
+     */
+    synchronized void put(String key, String path, HttpHeaders headers, byte[] body) {
+        remove(key);
+
+        if (!hasValidators(headers) || body.length > MAX_CACHE_BYTES / 4) {
+            return;
+        }
+
+        Entry entry = new Entry(
+            path,
+            headers.firstValue("ETag").orElse(null),
+            headers.firstValue("Last-Modified").orElse(null),
+            body
+        );
+
+        entries.put(key, entry);
+        size += body.length;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (size > MAX_CACHE_BYTES && iterator.hasNext()) {
+            size -= iterator.next().body().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes the cached responses affected by a request which modified the given path. Unknown paths clear the
+     * whole cache.
+     */
+    synchronized void invalidate(String path) {
+        List<String> invalidated = INVALIDATED_PATHS.entrySet().stream()
+            .filter(rule -> path.startsWith(rule.getKey()))
+            .map(Map.Entry::getValue)
+            .findFirst()
+            .orElse(null);
+
+        if (invalidated == null) {
+            clear();
+            return;
+        }
+
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+
+            if (startsWithAny(entry.path(), invalidated)) {
+                size -= entry.body().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    private void remove(String key) {
+        Entry previous = entries.remove(key);
+
+        if (previous != null) {
+            size -= previous.body().length;
+        }
+    }
+
+    private static boolean startsWithAny(String path, List<String> prefixes) {
+        return prefixes.stream().anyMatch(path::startsWith);
+    }
+
+    /**
+     * Wraps a stream so that every byte read from it is also written to <code>copy</code>.
+     */
+    static InputStream recording(InputStream in, ByteArrayOutputStream copy) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+
+                if (b >= 0) {
+                    copy.write(b);
+                }
+
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+
+                if (read > 0) {
+                    copy.write(buffer, offset, read);
+                }
+
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Response to a revalidated request, i.e. a <code>304 Not Modified</code> response with the cached body.
+     * Reported as <code>200 OK</code>, so that callers need not distinguish cached responses.
+     */
+    static class CachedResponse implements HttpResponse<String> {
+
+        private final HttpResponse<?> response;
+        private final String body;
+
+        CachedResponse(HttpResponse<?> response, String body) {
+            this.response = response;
+            this.body = body;
+        }
+
+        @Override
+        public int statusCode() {
+            return 200;
+        }
+
+        @Override
+        public HttpRequest request() {
+            return response.request();
+        }
+
+        @Override
+        public Optional<HttpResponse<String>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return response.headers();
+        }
+
+        @Override
+        public String body() {
+            return body;
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return response.sslSession();
+        }
+
+        @Override
+        public URI uri() {
+            return response.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return response.version();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package qupath.edu.api;
+
+import qupath.edu.api.NetworkScheduler.Priority;
+import qupath.lib.common.ThreadTools;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Shapes request and response bodies with {@link NetworkScheduler#shape(Priority, long)} as the bytes flow.
+ * <p>
+ * Every buffer sent or received is taken from the bandwidth budget; if the budget is in debt, the next buffers are
+ * only requested once the debt has been paid back. The body thus flows at the shaped rate, rather than being paid
+ * for before or after it has been transferred at full speed. Waiting does not block any thread, so the threads of
+ * the HTTP client keep serving other requests.
+ */
+class ShapedBodies {
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(ThreadTools.createThreadFactory("edu-network-shaper-", true));
+
+    private ShapedBodies() {}
+
+    static HttpRequest.BodyPublisher publisher(HttpRequest.BodyPublisher publisher, Priority priority) {
+        return new HttpRequest.BodyPublisher() {
+            @Override
+            public long contentLength() {
+                return publisher.contentLength();
+            }
+
+            @Override
+            public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                publisher.subscribe(new ShapedSubscriber<>(subscriber, priority, ByteBuffer::remaining));
+            }
+        };
+    }
+
+    static <T> HttpResponse.BodyHandler<T> handler(HttpResponse.BodyHandler<T> handler, Priority priority) {
+        return info -> new ShapedBodySubscriber<>(handler.apply(info), priority);
+    }
+
+    private static long remaining(List<ByteBuffer> buffers) {
+        long bytes = 0;
+
+        for (ByteBuffer buffer : buffers) {
+            bytes += buffer.remaining();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Passes items through as they arrive, but delays the demand of the downstream subscriber until the bandwidth
+     * budget allows more bytes.
+     */
+    private static class ShapedSubscriber<T> implements Flow.Subscriber<T> {
+
+        private final Flow.Subscriber<? super T> downstream;
+        private final Priority priority;
+        private final ToLongFunction<T> size;
+
+        private volatile long notBefore = System.nanoTime();
+
+        private ShapedSubscriber(Flow.Subscriber<? super T> downstream, Priority priority, ToLongFunction<T> size) {
+            this.downstream = downstream;
+            this.priority = priority;
+            this.size = size;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            downstream.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    long delay = notBefore - System.nanoTime();
+
+                    if (delay > 0) {
+                        scheduler.schedule(() -> subscription.request(n), delay, TimeUnit.NANOSECONDS);
+                    } else {
+                        subscription.request(n);
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                }
+            });
+        }
+
+        @Override
+        public void onNext(T item) {
+            long delay = NetworkScheduler.shape(priority, size.applyAsLong(item));
+
+            if (delay > 0) {
+                notBefore = System.nanoTime() + delay;
+            }
+
+            downstream.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            downstream.onComplete();
+        }
+    }
+
+    private static class ShapedBodySubscriber<T> extends ShapedSubscriber<List<ByteBuffer>> implements HttpResponse.BodySubscriber<T> {
+
+        private final HttpResponse.BodySubscriber<T> subscriber;
+
+        private ShapedBodySubscriber(HttpResponse.BodySubscriber<T> subscriber, Priority priority) {
+            super(subscriber, priority, ShapedBodies::remaining);
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return subscriber.getBody();
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package qupath.edu.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.gui.UserDirectoryManager;
+import qupath.lib.io.GsonTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static qupath.edu.api.EduAPI.Result;
+
+/**
+ * Uploads a slide in chunks, with several chunks in flight at once. Chunks are streamed from the file without being
+ * copied to the heap, so memory use stays flat regardless of the slide size.
+ * <p>
+ * Every acknowledged chunk is recorded with its CRC32 checksum in a manifest stored in the QuPath user directory.
+ * When the same file is uploaded again to the same server, chunks which are already acknowledged and whose checksum
+ * still matches the file are skipped, so an interrupted upload continues where it stopped, even after restarting
+ * QuPath. The manifest is deleted once the whole file is uploaded.
+ * <p>
+ * The server writes each chunk at {@code chunk * chunkSize}, so the chunk size is fixed for the lifetime of an upload.
+ * It is chosen from the throughput measured during the previous upload.
+ * <p>
+ * Chunks are only sent within the limits of the {@link UploadBudget} of the upload, which can be shared between
+ * several uploads to limit their combined bandwidth and concurrency.
+ */
+public class SlideUpload {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlideUpload.class);
+
+    public static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final int PARALLEL_CHUNKS = 4;
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Chunk size is picked so that a single chunk takes roughly this long to upload.
+     */
+    private static final Duration TARGET_CHUNK_DURATION = Duration.ofSeconds(2);
+
+    /**
+     * Manifests of uploads which were never finished are deleted after this period.
+     */
+    private static final Duration MANIFEST_EXPIRY = Duration.ofDays(7);
+
+    private final File file;
+    private final Path manifestPath;
+    private final Manifest manifest;
+    private final UploadBudget budget;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Set when a chunk failed, so that chunks which have not started yet are skipped.
+     */
+    private volatile boolean failed = false;
+
+    private long uploadedBytes;
+    private long sessionBytes;
+    private long sessionStart;
+
+    public interface ProgressListener {
+
+        /**
+         * @param uploadedBytes bytes acknowledged by the server, including chunks uploaded before resuming.
+         * @param totalBytes size of the file.
+         * @param bytesPerSecond average throughput since this upload was started or resumed.
+         */
+        void update(long uploadedBytes, long totalBytes, double bytesPerSecond);
+
+    }
+
+    private SlideUpload(File file, Path manifestPath, Manifest manifest, UploadBudget budget) {
+        this.file = file;
+        this.manifestPath = manifestPath;
+        this.manifest = manifest;
+        this.budget = budget;
+    }
+
+    /**
+     * Prepares an upload for the given file with its own budget of four chunks in flight
+     * and unlimited bandwidth.
+     *
+     * @see #of(File, UploadBudget)
+     */
+    public static SlideUpload of(File file) throws IOException {
+        return of(file, new UploadBudget(PARALLEL_CHUNKS, 0));
+    }
+
+    /**
+     * Prepares an upload for the given file, resuming a previous upload of the same file to the current server
+     * if one exists.
+     *
+     * @param budget limits for this upload, possibly shared with other uploads.
+     * @throws IOException if the file is empty or cannot be read.
+     */
+    public static SlideUpload of(File file, UploadBudget budget) throws IOException {
+        if (file.length() == 0) {
+            throw new IOException("Cannot upload an empty file: " + file);
+        }
+
+        deleteExpiredManifests();
+
+        Path manifestPath = getManifestPath(file);
+        Manifest manifest = readManifest(manifestPath)
+                .filter(previous -> previous.matches(file))
+                .orElseGet(() -> new Manifest(file, chooseChunkSize(budget.getMaxChunksInFlight())));
+
+        return new SlideUpload(file, manifestPath, manifest, budget);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getFileSize() {
+        return manifest.fileSize;
+    }
+
+    /**
+     * @return true if some chunks of this file were already uploaded before.
+     */
+    public boolean isResumed() {
+        return !manifest.checksums.isEmpty();
+    }
+
+    /**
+     * Stops the upload after the chunks in flight have finished. The manifest is kept, so the upload can be resumed.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Uploads all chunks which have not been acknowledged yet. This method is blocking.
+     *
+     * @param listener notified after every acknowledged chunk, from the upload threads.
+     * @return true if the whole file was uploaded, false if the upload was cancelled or a chunk failed to upload
+     *         after retrying. In the latter cases the upload can be resumed later.
+     * @throws IOException if reading the file failed.
+     */
+    public boolean upload(ProgressListener listener) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(budget.getMaxChunksInFlight(), ThreadTools.createThreadFactory("edu-slide-upload-", true));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            verifyAcknowledgedChunks(channel);
+
+            int lastChunk = manifest.getChunkCount() - 1;
+
+            List<Integer> pending = IntStream.range(0, lastChunk)
+                    .filter(chunk -> !manifest.checksums.containsKey(chunk))
+                    .boxed()
+                    .toList();
+
+            List<Integer> last = manifest.checksums.containsKey(lastChunk) ? List.of() : List.of(lastChunk);
+
+            synchronized (this) {
+                sessionStart = System.nanoTime();
+                sessionBytes = 0;
+            }
+
+            listener.update(uploadedBytes, manifest.fileSize, 0);
+
+            // The server considers the slide complete once the last chunk is written, so it is only sent after
+            // every other chunk has been acknowledged.
+            boolean success = uploadChunks(executor, channel, pending, listener)
+                    && uploadChunks(executor, channel, last, listener)
+                    && !cancelled;
+
+            if (success) {
+                Files.deleteIfExists(manifestPath);
+                rememberThroughput();
+            }
+
+            return success;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean uploadChunks(ExecutorService executor, FileChannel channel, List<Integer> chunks, ProgressListener listener) throws IOException, InterruptedException {
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Boolean>> futures = new ArrayList<>(chunks.size());
+
+        for (int chunk : chunks) {
+            futures.add(completionService.submit(() -> uploadChunk(channel, chunk, listener)));
+        }
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                if (!completionService.take().get()) {
+                    failed = true;
+                    return false;
+                }
+            }
+        } catch (ExecutionException e) {
+            failed = true;
+
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+
+            throw new IOException("Error while uploading slide", e.getCause());
+        }
+
+        return true;
+    }
+
+    private boolean uploadChunk(FileChannel channel, int chunk, ProgressListener listener) throws IOException, InterruptedException {
+        if (cancelled || failed) {
+            return false;
+        }
+
+        long checksum = checksum(channel, chunk);
+
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            budget.acquire(getChunkLength(chunk));
+
+            try {
+                Result result = EduAPI.uploadSlideChunk(manifest.fileName, manifest.fileSize, channel, manifest.chunkSize, chunk);
+
+                if (result == Result.OK) {
+                    acknowledge(chunk, checksum, getChunkLength(chunk), listener);
+                    return true;
+                }
+            } catch (IOException e) {
+                logger.warn("Error while uploading chunk {} of {}, attempt {}/{}", chunk, manifest.fileName, attempt, MAX_ATTEMPTS, e);
+            } finally {
+                budget.release();
+            }
+
+            if (cancelled || failed) {
+                return false;
+            }
+
+            if (attempt < MAX_ATTEMPTS) {
+                Thread.sleep(1000L * attempt);
+            }
+        }
+
+        logger.error("Failed to upload chunk {} of {}", chunk, manifest.fileName);
+
+        return false;
+    }
+
+    private synchronized void acknowledge(int chunk, long checksum, int length, ProgressListener listener) {
+        manifest.checksums.put(chunk, checksum);
+        uploadedBytes += length;
+        sessionBytes += length;
+
+        try {
+            writeManifest();
+        } catch (IOException e) {
+            logger.warn("Could not save upload progress; this upload cannot be resumed", e);
+        }
+
+        listener.update(uploadedBytes, manifest.fileSize, getThroughput());
+    }
+
+    private double getThroughput() {
+        double seconds = (System.nanoTime() - sessionStart) / 1e9;
+
+        return seconds > 0 ? sessionBytes / seconds : 0;
+    }
+
+    /**
+     * Drops acknowledged chunks whose checksum no longer matches the file, so that they are uploaded again.
+     */
+    private void verifyAcknowledgedChunks(FileChannel channel) throws IOException {
+        Iterator<Map.Entry<Integer, Long>> iterator = manifest.checksums.entrySet().iterator();
+
+        uploadedBytes = 0;
+
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Long> entry = iterator.next();
+
+            if (checksum(channel, entry.getKey()) == entry.getValue()) {
+                uploadedBytes += getChunkLength(entry.getKey());
+            } else {
+                logger.info("Chunk {} of {} has changed since it was uploaded", entry.getKey(), manifest.fileName);
+                iterator.remove();
+            }
+        }
+    }
+
+    private int getChunkLength(int chunk) {
+        return (int) Math.min(manifest.chunkSize, manifest.fileSize - (long) chunk * manifest.chunkSize);
+    }
+
+    /**
+     * Computes the CRC32 of a chunk from a memory mapping, without copying the chunk to the heap.
+     */
+    private long checksum(FileChannel channel, int chunk) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(channel.map(FileChannel.MapMode.READ_ONLY, (long) chunk * manifest.chunkSize, getChunkLength(chunk)));
+
+        return crc.getValue();
+    }
+
+    private void rememberThroughput() {
+        // Very short uploads do not tell much about the connection.
+        if (sessionBytes >= 4L * MIN_CHUNK_SIZE) {
+            EduOptions.uploadThroughput().set(getThroughput());
+        }
+    }
+
+    /**
+     * Picks the largest power of two chunk size which each parallel connection can upload within the target duration.
+     */
+    private static int chooseChunkSize(int chunksInFlight) {
+        double throughputPerChunk = EduOptions.uploadThroughput().get() / chunksInFlight;
+        long target = (long) (throughputPerChunk * TARGET_CHUNK_DURATION.toSeconds());
+
+        int chunkSize = MIN_CHUNK_SIZE;
+
+        while (chunkSize * 2L <= Math.min(target, MAX_CHUNK_SIZE)) {
+            chunkSize *= 2;
+        }
+
+        return chunkSize;
+    }
+
+    /* Manifest */
+
+    private void writeManifest() throws IOException {
+        Files.createDirectories(manifestPath.getParent());
+
+        Path temporary = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            GsonTools.getInstance().toJson(manifest, writer);
+        }
+
+        Files.move(temporary, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Optional<Manifest> readManifest(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return Optional.ofNullable(GsonTools.getInstance().fromJson(reader, Manifest.class));
+        } catch (Exception e) {
+            logger.warn("Could not read upload manifest {}", path, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return directory for upload manifests and the upload queue, within the QuPath user directory if one is set.
+     */
+    static Path getUploadDirectory() {
+        Path userPath = UserDirectoryManager.getInstance().getUserPath();
+
+        if (userPath == null) {
+            userPath = Path.of(System.getProperty("user.home"), ".qupath-edu");
+        }
+
+        return userPath.resolve("edu-uploads");
+    }
+
+    private static Path getManifestDirectory() {
+        return getUploadDirectory().resolve("manifests");
+    }
+
+    /**
+     * Manifests are named after the server, file path, size and modification time, so that a changed file or
+     * a different server never resumes a previous upload.
+     */
+    private static Path getManifestPath(File file) {
+        String key = EduAPI.getHost() + "|" + file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+
+        return getManifestDirectory().resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    private static void deleteExpiredManifests() {
+        Path directory = getManifestDirectory();
+
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        Instant expiry = Instant.now().minus(MANIFEST_EXPIRY);
+
+        try (Stream<Path> manifests = Files.list(directory)) {
+            for (Path manifest : manifests.toList()) {
+                FileTime modified = Files.getLastModifiedTime(manifest);
+
+                if (modified.toInstant().isBefore(expiry)) {
+                    Files.deleteIfExists(manifest);
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Error while deleting expired upload manifests", e);
+        }
+    }
+
+    private static class Manifest {
+
+        private String fileName;
+        private long fileSize;
+        private long lastModified;
+        private int chunkSize;
+
+        /**
+         * CRC32 checksum of every chunk acknowledged by the server, by chunk index.
+         */
+        private Map<Integer, Long> checksums = new HashMap<>();
+
+        @SuppressWarnings("unused")
+        private Manifest() {}
+
+        private Manifest(File file, int chunkSize) {
+            this.fileName = file.getName();
+            this.fileSize = file.length();
+            this.lastModified = file.lastModified();
+            this.chunkSize = chunkSize;
+        }
+
+        private boolean matches(File file) {
+            return Objects.equals(fileName, file.getName())
+                    && fileSize == file.length()
+                    && lastModified == file.lastModified()
+                    && chunkSize >= MIN_CHUNK_SIZE
+                    && checksums != null;
+        }
+
+        private int getChunkCount() {
+            return (int) Math.ceilDiv(fileSize, (long) chunkSize);
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package qupath.edu.api;
+
+import com.google.gson.reflect.TypeToken;
+import javafx.application.Platform;
+import javafx.beans.Observable;
+import javafx.beans.property.*;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+import qupath.edu.models.ExternalSlide;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.io.GsonTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static qupath.edu.api.EduAPI.Result;
+
+/**
+ * Queue of slides to upload, shared by the whole application.
+ * <p>
+ * Up to {@value MAX_PARALLEL_FILES} files are uploaded at once. All uploads share one {@link UploadBudget}, which
+ * follows {@link EduOptions#uploadParallelChunks()} and {@link EduOptions#uploadBandwidthLimit()}. Finished slides are
+ * submitted for tiling in batches, once no uploads are running or {@value TILING_BATCH_SIZE} slides are waiting, as
+ * finding the uploaded slides requires fetching all slides.
+ * <p>
+ * The queue is saved in the QuPath user directory whenever it changes. After restarting QuPath it is restored paused;
+ * uploads continue from their last acknowledged chunk once the queue is started again, and slides which had been
+ * uploaded but not yet submitted for tiling are only submitted for tiling.
+ * <p>
+ * {@link #getItems()} and the properties of the items are only updated on the JavaFX Application Thread.
+ */
+public class SlideUploadQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlideUploadQueue.class);
+
+    /**
+     * Extensions of single file slide formats which can be tiled by the server.
+     */
+    public static final Set<String> SLIDE_EXTENSIONS = Set.of("svs", "tif", "tiff", "ndpi", "scn", "svslide", "bif");
+
+    private static final int MAX_PARALLEL_FILES = 2;
+
+    private static final int TILING_BATCH_SIZE = 25;
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private static SlideUploadQueue instance;
+
+    /**
+     * Items fire change events when their status changes, so that summaries of the queue can be bound to this list.
+     */
+    private final ObservableList<Item> items = FXCollections.observableArrayList(item -> new Observable[] { item.statusProperty() });
+    private final ObservableList<Item> unmodifiableItems = FXCollections.unmodifiableObservableList(items);
+
+    private final ReadOnlyBooleanWrapper running = new ReadOnlyBooleanWrapper(false);
+    private final ReadOnlyDoubleWrapper throughput = new ReadOnlyDoubleWrapper(0);
+
+    /* State used by the upload threads, guarded by this */
+
+    private final List<Item> queue = new ArrayList<>();
+    private boolean started = false;
+    private int activeUploads = 0;
+    private final List<Item> awaitingTiling = new ArrayList<>();
+
+    private final UploadBudget budget;
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_FILES, ThreadTools.createThreadFactory("edu-upload-queue-", true));
+
+    public static synchronized SlideUploadQueue getInstance() {
+        if (instance == null) {
+            instance = new SlideUploadQueue();
+            instance.restore();
+        }
+
+        return instance;
+    }
+
+    private SlideUploadQueue() {
+        budget = new UploadBudget(
+            EduOptions.uploadParallelChunks().get(),
+            EduOptions.uploadBandwidthLimit().get() * BYTES_PER_MEGABYTE
+        );
+
+        EduOptions.uploadParallelChunks().addListener((obs, oldValue, newValue) -> budget.setMaxChunksInFlight(newValue.intValue()));
+        EduOptions.uploadBandwidthLimit().addListener((obs, oldValue, newValue) -> budget.setBytesPerSecond(newValue.doubleValue() * BYTES_PER_MEGABYTE));
+    }
+
+    public ObservableList<Item> getItems() {
+        return unmodifiableItems;
+    }
+
+    public ReadOnlyBooleanProperty runningProperty() {
+        return running.getReadOnlyProperty();
+    }
+
+    /**
+     * @return combined throughput of all running uploads in bytes per second.
+     */
+    public ReadOnlyDoubleProperty throughputProperty() {
+        return throughput.getReadOnlyProperty();
+    }
+
+    /**
+     * Adds files to the end of the queue. Files which are already queued for the current server are skipped.
+     *
+     * @return number of files added.
+     */
+    public int add(Collection<File> files) {
+        List<Item> added = new ArrayList<>();
+
+        synchronized (this) {
+            for (File file : files) {
+                boolean queued = queue.stream().anyMatch(item ->
+                    item.file.equals(file) && item.host.equals(EduAPI.getHost().toString()) && item.getStatus() != Item.Status.DONE
+                );
+
+                if (file.isFile() && !queued) {
+                    Item item = new Item(file, EduAPI.getHost().toString());
+                    queue.add(item);
+                    added.add(item);
+                }
+            }
+        }
+
+        runOnFxThread(() -> items.addAll(added));
+        persist();
+        schedule();
+
+        return added.size();
+    }
+
+    /**
+     * Adds all slides in a directory and its subdirectories to the queue, ordered by path.
+     *
+     * @return number of files added.
+     * @see #SLIDE_EXTENSIONS
+     */
+    public int addDirectory(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            return add(paths
+                .filter(Files::isRegularFile)
+                .filter(path -> SLIDE_EXTENSIONS.contains(getExtension(path)))
+                .sorted()
+                .map(Path::toFile)
+                .toList());
+        }
+    }
+
+    public void start() {
+        synchronized (this) {
+            started = true;
+        }
+
+        runOnFxThread(() -> running.set(true));
+        schedule();
+
+        // Slides uploaded before restarting may still be waiting for tiling
+        executor.submit(this::submitBatchForTiling);
+    }
+
+    /**
+     * Stops all running uploads and puts them back in the queue. They continue where they stopped when the queue
+     * is started again.
+     */
+    public void pause() {
+        synchronized (this) {
+            started = false;
+
+            queue.stream()
+                .filter(item -> item.getStatus() == Item.Status.UPLOADING)
+                .forEach(item -> item.stop(true));
+        }
+
+        runOnFxThread(() -> running.set(false));
+    }
+
+    /**
+     * Removes an item from the queue, stopping it first if it is being uploaded.
+     */
+    public void remove(Item item) {
+        synchronized (this) {
+            queue.remove(item);
+            item.stop(false);
+        }
+
+        runOnFxThread(() -> items.remove(item));
+        persist();
+    }
+
+    /**
+     * Queues a failed or stopped upload again. The upload continues from its last acknowledged chunk.
+     */
+    public synchronized void retry(Item item) {
+        if (item.getStatus() == Item.Status.FAILED || item.getStatus() == Item.Status.STOPPED) {
+            item.setStatus(Item.Status.QUEUED, "Queued");
+            schedule();
+        }
+    }
+
+    public void clearFinished() {
+        List<Item> finished;
+
+        synchronized (this) {
+            finished = queue.stream().filter(item -> item.getStatus() == Item.Status.DONE).toList();
+            queue.removeAll(finished);
+        }
+
+        runOnFxThread(() -> items.removeAll(finished));
+        persist();
+    }
+
+    /**
+     * Starts uploading queued items for the current server until {@value MAX_PARALLEL_FILES} are uploading.
+     */
+    private synchronized void schedule() {
+        while (started && activeUploads < MAX_PARALLEL_FILES) {
+            Optional<Item> next = queue.stream()
+                .filter(item -> item.getStatus() == Item.Status.QUEUED)
+                .filter(item -> item.host.equals(EduAPI.getHost().toString()))
+                .findFirst();
+
+            if (next.isEmpty()) {
+                break;
+            }
+
+            Item item = next.get();
+            item.setStatus(Item.Status.UPLOADING, "Starting");
+            activeUploads++;
+
+            executor.submit(() -> process(item));
+        }
+    }
+
+    private void process(Item item) {
+        try {
+            SlideUpload upload = SlideUpload.of(item.file, budget);
+            item.start(upload);
+
+            if (upload.upload(item::updateProgress)) {
+                item.setStatus(Item.Status.TILING, "Waiting for other uploads to finish");
+
+                synchronized (this) {
+                    awaitingTiling.add(item);
+                }
+            } else if (upload.isCancelled()) {
+                if (item.requeue) {
+                    item.setStatus(Item.Status.QUEUED, "Queued");
+                } else {
+                    item.setStatus(Item.Status.STOPPED, "Stopped");
+                }
+            } else {
+                item.setStatus(Item.Status.FAILED, "Failed, see log for details");
+            }
+        } catch (IOException e) {
+            logger.error("Error while uploading {}", item.file, e);
+            item.setStatus(Item.Status.FAILED, "Failed: " + e.getLocalizedMessage());
+        } catch (InterruptedException e) {
+            item.setStatus(Item.Status.QUEUED, "Queued");
+            Thread.currentThread().interrupt();
+        } finally {
+            item.upload = null;
+
+            synchronized (this) {
+                activeUploads--;
+            }
+
+            runOnFxThread(this::updateThroughput);
+            persist();
+            schedule();
+            submitBatchForTiling();
+        }
+    }
+
+    /**
+     * Submits the finished slides for tiling if the batch is complete, fetching the slides only once per batch. Only
+     * slides uploaded to the current server are submitted.
+     */
+    private void submitBatchForTiling() {
+        List<Item> batch;
+
+        synchronized (this) {
+            if (awaitingTiling.isEmpty() || activeUploads > 0 && awaitingTiling.size() < TILING_BATCH_SIZE) {
+                return;
+            }
+
+            batch = awaitingTiling.stream()
+                .filter(item -> item.host.equals(EduAPI.getHost().toString()))
+                .toList();
+
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            awaitingTiling.removeAll(batch);
+        }
+
+        batch.forEach(item -> item.setStatus(Item.Status.TILING, "Submitting for tiling"));
+
+        List<ExternalSlide> slides;
+
+        try {
+            slides = EduAPI.getAllSlides();
+        } catch (RuntimeException e) {
+            logger.error("Error while fetching slides for tiling", e);
+            batch.forEach(item -> item.setStatus(Item.Status.DONE, "Uploaded, tile it in the slide manager"));
+            return;
+        }
+
+        batch.forEach(item -> submitForTiling(item, slides));
+        persist();
+    }
+
+    /**
+     * Finds the uploaded slide by its file name and submits it for tiling. The upload endpoint does not return the ID
+     * of the slide, so tiling is skipped if the name is ambiguous.
+     */
+    private void submitForTiling(Item item, List<ExternalSlide> slides) {
+        List<ExternalSlide> candidates = slides.stream()
+            .filter(slide -> item.getName().equals(slide.getName()))
+            .filter(slide -> !slide.isTiled())
+            .toList();
+
+        if (candidates.size() != 1) {
+            item.setStatus(Item.Status.DONE, "Uploaded, tile it in the slide manager");
+            return;
+        }
+
+        Result result = EduAPI.submitSlideForTiling(candidates.get(0).getId());
+
+        if (result == Result.OK) {
+            item.setStatus(Item.Status.DONE, "Uploaded and submitted for tiling");
+        } else {
+            item.setStatus(Item.Status.DONE, "Uploaded, tiling might already be queued");
+        }
+    }
+
+    private void updateThroughput() {
+        throughput.set(items.stream().mapToDouble(item -> item.throughput.get()).sum());
+    }
+
+    /* Persistence */
+
+    private Path getQueuePath() {
+        return SlideUpload.getUploadDirectory().resolve("queue.json");
+    }
+
+    private synchronized void persist() {
+        List<SavedItem> saved = queue.stream()
+            .filter(item -> item.getStatus() != Item.Status.DONE)
+            .map(item -> new SavedItem(item.file.getAbsolutePath(), item.host, item.getStatus() == Item.Status.TILING))
+            .toList();
+
+        try {
+            Path path = getQueuePath();
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+            Files.createDirectories(path.getParent());
+
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                GsonTools.getInstance().toJson(saved, writer);
+            }
+
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not save the upload queue", e);
+        }
+    }
+
+    private void restore() {
+        Path path = getQueuePath();
+
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            List<SavedItem> saved = GsonTools.getInstance().fromJson(reader, new TypeToken<List<SavedItem>>() {}.getType());
+
+            if (saved == null) {
+                return;
+            }
+
+            List<Item> restored = new ArrayList<>();
+            List<Item> uploaded = new ArrayList<>();
+
+            for (SavedItem savedItem : saved) {
+                if (savedItem.path == null || savedItem.host == null) {
+                    continue;
+                }
+
+                Item item = new Item(new File(savedItem.path), savedItem.host);
+
+                // The chunks of uploaded slides have been deleted, so they must not be uploaded again
+                if (savedItem.uploaded) {
+                    item.setStatus(Item.Status.TILING, "Waiting for the queue to start");
+                    uploaded.add(item);
+                } else if (!item.file.isFile()) {
+                    continue;
+                }
+
+                restored.add(item);
+            }
+
+            synchronized (this) {
+                queue.addAll(restored);
+                awaitingTiling.addAll(uploaded);
+            }
+
+            runOnFxThread(() -> items.addAll(restored));
+        } catch (Exception e) {
+            logger.warn("Could not restore the upload queue", e);
+        }
+    }
+
+    private static String getExtension(Path path) {
+        String name = path.getFileName().toString();
+        int index = name.lastIndexOf('.');
+
+        return index < 0 ? "" : name.substring(index + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static void runOnFxThread(Runnable runnable) {
+        if (Platform.isFxApplicationThread()) {
+            runnable.run();
+        } else {
+            Platform.runLater(runnable);
+        }
+    }
+
+    /**
+     * @param uploaded true if the slide has been uploaded and is waiting to be submitted for tiling.
+     */
+    private record SavedItem(String path, String host, boolean uploaded) {}
+
+    public class Item {
+
+        public enum Status {
+            QUEUED, UPLOADING, TILING, DONE, STOPPED, FAILED
+        }
+
+        private final File file;
+        private final String host;
+
+        /**
+         * Current status, readable from any thread. The status property follows it on the JavaFX Application Thread.
+         */
+        private volatile Status currentStatus = Status.QUEUED;
+        private volatile SlideUpload upload;
+
+        /**
+         * Set when the item was paused or removed, possibly before its upload was created.
+         */
+        private volatile boolean stopRequested = false;
+
+        /**
+         * True if a stopped upload should be queued again instead of being marked as stopped.
+         */
+        private volatile boolean requeue = false;
+
+        private final ReadOnlyObjectWrapper<Status> status = new ReadOnlyObjectWrapper<>(Status.QUEUED);
+        private final ReadOnlyStringWrapper message = new ReadOnlyStringWrapper("Queued");
+        private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(0);
+        private final ReadOnlyDoubleWrapper throughput = new ReadOnlyDoubleWrapper(0);
+
+        private Item(File file, String host) {
+            this.file = file;
+            this.host = host;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getName() {
+            return file.getName();
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public Status getStatus() {
+            return currentStatus;
+        }
+
+        public ReadOnlyObjectProperty<Status> statusProperty() {
+            return status.getReadOnlyProperty();
+        }
+
+        public ReadOnlyStringProperty messageProperty() {
+            return message.getReadOnlyProperty();
+        }
+
+        /**
+         * @return progress between 0 and 1.
+         */
+        public ReadOnlyDoubleProperty progressProperty() {
+            return progress.getReadOnlyProperty();
+        }
+
+        /**
+         * @return throughput of this upload in bytes per second, zero when not uploading.
+         */
+        public ReadOnlyDoubleProperty throughputProperty() {
+            return throughput.getReadOnlyProperty();
+        }
+
+        private void start(SlideUpload upload) {
+            this.upload = upload;
+
+            // Paused or removed before the upload was created
+            if (stopRequested) {
+                upload.cancel();
+            }
+        }
+
+        private void stop(boolean requeue) {
+            this.requeue = requeue;
+            this.stopRequested = true;
+
+            SlideUpload current = upload;
+
+            if (current != null) {
+                current.cancel();
+            }
+
+            if (!requeue && currentStatus == Status.QUEUED) {
+                setStatus(Status.STOPPED, "Stopped");
+            }
+        }
+
+        private void setStatus(Status newStatus, String newMessage) {
+            currentStatus = newStatus;
+
+            if (newStatus == Status.QUEUED || newStatus == Status.UPLOADING) {
+                requeue = false;
+                stopRequested = false;
+            }
+
+            runOnFxThread(() -> {
+                status.set(newStatus);
+                message.set(newMessage);
+
+                if (newStatus == Status.DONE) {
+                    progress.set(1);
+                }
+
+                if (newStatus != Status.UPLOADING) {
+                    throughput.set(0);
+                    updateThroughput();
+                }
+            });
+        }
+
+        private void updateProgress(long uploadedBytes, long totalBytes, double bytesPerSecond) {
+            runOnFxThread(() -> {
+                if (status.get() != Status.UPLOADING) {
+                    return;
+                }
+
+                progress.set(uploadedBytes * 1.0 / totalBytes);
+                throughput.set(bytesPerSecond);
+                message.set(String.format("Uploading %.1f%%", uploadedBytes * 100.0 / totalBytes));
+                updateThroughput();
+            });
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package qupath.edu.api;
+
+/**
+ * Quality of the tiles requested from a tile server, which fills the optional <code>{quality}</code> and
+ * <code>{format}</code> placeholders of render region URI templates. Servers whose templates have no such
+ * placeholders always serve their default quality.
+ */
+public enum TileQuality {
+
+    FULL(90, "jpeg"),
+
+    /**
+     * Smaller tiles for slow connections, shown until the full quality tiles have loaded.
+     */
+    LOW(30, "jpeg");
+
+    private final int quality;
+    private final String format;
+
+    TileQuality(int quality, String format) {
+        this.quality = quality;
+        this.format = format;
+    }
+
+    /**
+     * @return compression quality, from 1 to 100.
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @return true if the template has placeholders for the quality, i.e. the tile server lets the quality be chosen.
+     */
+    public static boolean isSupported(String template) {
+        return template.contains("{quality}") || template.contains("{format}");
+    }
+}
@@ -0,0 +1,91 @@
+package qupath.edu.api;
+
+/**
+ * Limits the number of chunks in flight and the bandwidth used by one or more {@link SlideUpload}s sharing this budget.
+ * <p>
+ * Bandwidth is limited with a token bucket which holds at most one second worth of bytes. A chunk may take the bucket
+ * into debt, in which case the next chunk waits until the debt has been paid back. Both limits can be changed while
+ * uploads are running.
+ */
+public class UploadBudget {
+
+    private int maxChunksInFlight;
+    private int chunksInFlight = 0;
+
+    private double bytesPerSecond;
+    private double availableBytes = 0;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param maxChunksInFlight maximum number of chunks uploaded at once.
+     * @param bytesPerSecond maximum upload rate, or zero for unlimited.
+     */
+    public UploadBudget(int maxChunksInFlight, double bytesPerSecond) {
+        this.maxChunksInFlight = Math.max(1, maxChunksInFlight);
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    public synchronized void setMaxChunksInFlight(int maxChunksInFlight) {
+        this.maxChunksInFlight = Math.max(1, maxChunksInFlight);
+        notifyAll();
+    }
+
+    public synchronized int getMaxChunksInFlight() {
+        return maxChunksInFlight;
+    }
+
+    public synchronized void setBytesPerSecond(double bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.availableBytes = 0;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Waits until a chunk of the given size may be uploaded. Every call must be followed by {@link #release()}
+     * once the chunk has been uploaded, even if uploading it failed.
+     */
+    void acquire(long bytes) throws InterruptedException {
+        synchronized (this) {
+            while (chunksInFlight >= maxChunksInFlight) {
+                wait();
+            }
+
+            chunksInFlight++;
+        }
+
+        try {
+            long delay = reserve(bytes);
+
+            if (delay > 0) {
+                Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+            }
+        } catch (InterruptedException e) {
+            release();
+            throw e;
+        }
+    }
+
+    synchronized void release() {
+        chunksInFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Takes the given number of bytes from the bucket.
+     *
+     * @return nanoseconds to wait before the bytes may be sent.
+     */
+    synchronized long reserve(long bytes) {
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+
+        availableBytes = Math.min(bytesPerSecond, availableBytes + (now - lastRefill) / 1e9 * bytesPerSecond);
+        availableBytes -= bytes;
+        lastRefill = now;
+
+        return availableBytes >= 0 ? 0 : (long) (-availableBytes / bytesPerSecond * 1e9);
+    }
+}
@@ -0,0 +1,235 @@
+package qupath.edu.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.exceptions.HttpException;
+import qupath.edu.models.ExternalProject;
+import qupath.edu.models.ExternalSubject;
+import qupath.edu.models.ExternalWorkspace;
+import qupath.edu.util.WorkspaceSearchIndex;
+import qupath.lib.common.ThreadTools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Keeps the most recently fetched workspace tree in memory, so that the workspace dialog can be shown instantly
+ * and revalidated in the background. The cached tree is tied to the host, user and organization it was fetched
+ * with and is discarded when any of them changes.
+ * <p>
+ * Single create, rename and delete operations should be applied to the cached tree directly instead of refetching it.
+ * The {@link WorkspaceSearchIndex} over the cached tree is kept up to date with these operations.
+ * <p>
+ * Write permissions of workspaces and hidden lessons are fetched again with the tree, as hidden lessons are only
+ * shown to users who may edit them. Write permissions of other lessons are fetched lazily, in parallel, when their
+ * cells are shown; until then the user has no write permission to a lesson. Permissions are kept in the cache of
+ * {@link EduAPI#hasWritePermission(String)}.
+ */
+public class WorkspaceCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(WorkspaceCache.class);
+
+    private static final int PERMISSION_THREADS = 8;
+
+    private static final ExecutorService permissionExecutor = Executors.newFixedThreadPool(PERMISSION_THREADS, ThreadTools.createThreadFactory("edu-permissions-", true));
+
+    private static volatile List<ExternalWorkspace> workspaces;
+    private static volatile String cacheKey;
+
+    private static final Set<String> pendingPermissions = ConcurrentHashMap.newKeySet();
+
+    private static final WorkspaceSearchIndex searchIndex = new WorkspaceSearchIndex();
+
+    private WorkspaceCache() {}
+
+    /**
+     * Returns the cached workspace tree, if one exists for the current host, user and organization.
+     *
+     * @return cached workspaces or empty if none are cached.
+     */
+    public static Optional<List<ExternalWorkspace>> getWorkspaces() {
+        if (workspaces == null || !Objects.equals(cacheKey, createCacheKey())) {
+            return Optional.empty();
+        }
+
+        return Optional.of(workspaces);
+    }
+
+    /**
+     * Fetches all workspaces from the server and write permissions for the workspaces which belong to the current
+     * organization and for all hidden lessons. This method is blocking and should not be called from the JavaFX Application Thread.
+     *
+     * @return the fetched workspaces.
+     * @throws qupath.edu.exceptions.HttpException if fetching the workspaces failed.
+     */
+    public static synchronized List<ExternalWorkspace> fetchWorkspaces() {
+        String key = createCacheKey();
+        List<ExternalWorkspace> fetched = EduAPI.getAllWorkspaces();
+
+        List<Callable<Void>> checks = new ArrayList<>();
+
+        for (ExternalWorkspace workspace : fetched) {
+            if (belongsToCurrentOrganization(workspace)) {
+                checks.add(() -> {
+                    EduAPI.refreshWritePermission(workspace.getId());
+                    return null;
+                });
+            }
+
+            for (ExternalSubject subject : workspace.getSubjects()) {
+                for (ExternalProject project : subject.getHiddenProjects()) {
+                    checks.add(() -> {
+                        EduAPI.refreshWritePermission(project.getId());
+                        return null;
+                    });
+                }
+            }
+        }
+
+        try {
+            for (Future<Void> check : permissionExecutor.invokeAll(checks)) {
+                check.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof HttpException cause ? cause : new HttpException(e.getCause());
+        }
+
+        searchIndex.update(fetched.stream().filter(WorkspaceCache::belongsToCurrentOrganization).toList());
+
+        workspaces = fetched;
+        cacheKey = key;
+
+        return fetched;
+    }
+
+    /**
+     * Fetches the write permission for a lesson in the background, unless it is already known or being fetched.
+     */
+    public static void requestWritePermission(String id) {
+        if (id == null || EduAPI.getKnownWritePermission(id).isPresent() || !pendingPermissions.add(id)) {
+            return;
+        }
+
+        permissionExecutor.execute(() -> {
+            try {
+                EduAPI.hasWritePermission(id);
+            } catch (HttpException e) {
+                logger.debug("Error while fetching write permission for {}", id, e);
+            } finally {
+                pendingPermissions.remove(id);
+            }
+        });
+    }
+
+    /**
+     * Returns the known write permission for a workspace or lesson. This never makes a network request.
+     *
+     * @param id workspace or lesson id.
+     * @return true if user has write permissions, false if not or if not known yet.
+     */
+    public static boolean hasWritePermission(String id) {
+        return id != null && EduAPI.getKnownWritePermission(id).orElse(false);
+    }
+
+    /**
+     * Searches the cached workspaces, courses and lessons by name and description.
+     *
+     * @param query free text query.
+     * @param limit maximum number of results.
+     * @return matching entries, best match first. Empty if nothing is cached.
+     */
+    public static List<WorkspaceSearchIndex.Entry> search(String query, int limit) {
+        if (getWorkspaces().isEmpty()) {
+            return List.of();
+        }
+
+        return searchIndex.search(query, limit);
+    }
+
+    /**
+     * Check if the given workspace belongs to the same organization as the user.
+     */
+    public static boolean belongsToCurrentOrganization(ExternalWorkspace workspace) {
+        return Objects.equals(workspace.getOwnerId(), EduAPI.getOrganizationId()) || Objects.equals(workspace.getOwnerId(), EduAPI.getUserId());
+    }
+
+    public static Optional<ExternalWorkspace> findWorkspace(String id) {
+        return getWorkspaces().flatMap(workspaces -> workspaces.stream()
+                .filter(workspace -> workspace.getId().equalsIgnoreCase(id))
+                .findFirst());
+    }
+
+    public static Optional<ExternalSubject> findSubject(String id) {
+        return getWorkspaces().flatMap(workspaces -> workspaces.stream()
+                .flatMap(workspace -> workspace.findSubject(id).stream())
+                .findFirst());
+    }
+
+    public static void renameWorkspace(String id, String name) {
+        findWorkspace(id).ifPresent(workspace -> {
+            workspace.setName(name);
+            searchIndex.update(workspace);
+        });
+    }
+
+    public static void removeWorkspace(String id) {
+        getWorkspaces().ifPresent(cached -> {
+            workspaces = cached.stream()
+                    .filter(workspace -> !workspace.getId().equalsIgnoreCase(id))
+                    .toList();
+        });
+
+        searchIndex.remove(id);
+    }
+
+    public static void renameSubject(String id, String name) {
+        getWorkspaces().ifPresent(workspaces -> workspaces.forEach(workspace -> {
+            workspace.findSubject(id).ifPresent(subject -> {
+                subject.setName(name);
+                searchIndex.update(workspace);
+            });
+        }));
+    }
+
+    public static void removeSubject(String id) {
+        getWorkspaces().ifPresent(workspaces -> workspaces.forEach(workspace -> workspace.removeSubject(id)));
+        searchIndex.remove(id);
+    }
+
+    /**
+     * Updates the search index after a lesson was edited in place, e.g. renamed.
+     */
+    public static void updateProject(ExternalProject project) {
+        getWorkspaces().ifPresent(workspaces -> workspaces.stream()
+                .filter(workspace -> workspace.getAllProjects().stream().anyMatch(p -> p.getId().equals(project.getId())))
+                .forEach(searchIndex::update));
+    }
+
+    public static void removeProject(String id) {
+        getWorkspaces().ifPresent(workspaces -> workspaces.stream()
+                .flatMap(workspace -> workspace.getSubjects().stream())
+                .forEach(subject -> subject.removeProject(id)));
+
+        searchIndex.remove(id);
+    }
+
+    /**
+     * Discards the cached tree, e.g. when logging out.
+     */
+    public static void invalidate() {
+        workspaces = null;
+        cacheKey = null;
+        searchIndex.clear();
+    }
+
+    private static String createCacheKey() {
+        return EduAPI.getHost() + "|" + EduAPI.getUserId() + "|" + EduAPI.getOrganizationId();
+    }
+}
@@ -0,0 +1,45 @@
+package qupath.edu.gui;
+
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.Text;
+import qupath.edu.util.WorkspaceSearchIndex;
+
+public class SearchResultListCell extends ListCell<WorkspaceSearchIndex.Entry> {
+
+    private static final Font NAME_FONT = Font.font(Font.getDefault().getName(), FontWeight.BOLD, Font.getDefault().getSize());
+    private static final Font LOCATION_FONT = Font.font(10);
+
+    private final Text name = new Text();
+    private final Text location = new Text();
+    private final VBox pane = new VBox(name, location);
+
+    public SearchResultListCell() {
+        name.setFont(NAME_FONT);
+        location.setFont(LOCATION_FONT);
+        location.setFill(Color.GRAY);
+    }
+
+    @Override
+    protected void updateItem(WorkspaceSearchIndex.Entry item, boolean empty) {
+        super.updateItem(item, empty);
+
+        if (empty || item == null) {
+            setGraphic(null);
+            return;
+        }
+
+        name.setText(item.getName());
+
+        if (item.getPath().isEmpty()) {
+            location.setText(item.getType().getReadable());
+        } else {
+            location.setText(item.getType().getReadable() + " in " + item.getPath());
+        }
+
+        setGraphic(pane);
+    }
+}
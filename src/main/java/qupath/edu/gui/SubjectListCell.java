@@ -7,18 +7,19 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.text.Text;
 import org.controlsfx.glyphfont.FontAwesome;
+import qupath.edu.api.WorkspaceCache;
 import qupath.edu.gui.buttons.IconButtons;
 import qupath.edu.gui.dialogs.WorkspaceManager;
 import qupath.edu.models.ExternalSubject;
 
 public class SubjectListCell extends ListCell<ExternalSubject> {
 
-    private final boolean hasWriteAccess;
+    private final String workspaceId;
     private final WorkspaceManager workspaceManager;
 
-    public SubjectListCell(WorkspaceManager workspaceManager, boolean hasWriteAccess) {
+    public SubjectListCell(WorkspaceManager workspaceManager, String workspaceId) {
         this.workspaceManager = workspaceManager;
-        this.hasWriteAccess = hasWriteAccess;
+        this.workspaceId = workspaceId;
     }
 
     @Override
@@ -26,6 +27,7 @@ public class SubjectListCell extends ListCell<ExternalSubject> {
         super.updateItem(item, empty);
 
         if (empty || item == null) {
+            setGraphic(null);
             return;
         }
 
@@ -57,7 +59,8 @@ public class SubjectListCell extends ListCell<ExternalSubject> {
 
         /* Hover */
 
-        if (hasWriteAccess) {
+        // Read when rendered, as the permission may change when the workspaces are revalidated
+        if (WorkspaceCache.hasWritePermission(workspaceId)) {
             hbox.setOnMouseEntered(e -> buttons.setVisible(true));
             hbox.setOnMouseExited(e  -> buttons.setVisible(false));
         }
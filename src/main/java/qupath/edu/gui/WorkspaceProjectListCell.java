@@ -4,6 +4,7 @@ import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.VPos;
 import javafx.scene.control.*;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseButton;
 import javafx.scene.layout.*;
@@ -15,6 +16,7 @@ import org.controlsfx.control.GridCell;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.edu.api.EduAPI;
+import qupath.edu.api.WorkspaceCache;
 import qupath.edu.gui.dialogs.WorkspaceManager;
 import qupath.edu.models.ExternalProject;
 import qupath.edu.util.ReflectionUtil;
@@ -26,50 +28,57 @@ public class WorkspaceProjectListCell extends GridCell<ExternalProject> {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private static final Border HIDDEN_BORDER = new Border(new BorderStroke(
+        Color.DARKGRAY,           Color.DARKGRAY,           Color.DARKGRAY,           Color.DARKGRAY,
+        BorderStrokeStyle.DASHED, BorderStrokeStyle.DASHED, BorderStrokeStyle.DASHED, BorderStrokeStyle.DASHED,
+        CornerRadii.EMPTY, new BorderWidths(1), Insets.EMPTY
+    ));
+
+    private static final Border VISIBLE_BORDER = new Border(new BorderStroke(
+        null, null, Color.DARKGRAY,          null,
+        null, null, BorderStrokeStyle.SOLID, null,
+        CornerRadii.EMPTY, new BorderWidths(1), Insets.EMPTY
+    ));
+
+    private static final Background HIDDEN_BACKGROUND = new Background(new BackgroundFill(Color.LIGHTGRAY, null, null));
+
+    private static final Font NAME_FONT = Font.font(Font.getDefault().getName(), FontWeight.BOLD, 13);
+
+    /**
+     * QuPath icon shared by all cells. Loaded lazily, as loading it requires reflection and decoding the image.
+     */
+    private static Image icon;
+
     private final WorkspaceManager manager;
     private ExternalProject project;
 
-    private boolean hasWriteAccess = false;
+    /* The node graph is built once per cell and only its content is updated in updateItem(...) */
+
+    private final GridPane pane = new GridPane();
+    private final Text name = new Text();
+    private final Label description = new Label();
+    private final Tooltip descriptionTooltip = new Tooltip();
 
     public WorkspaceProjectListCell(WorkspaceManager manager) {
         this.manager = manager;
 
         setPrefWidth(0);
-    }
+        setPadding(new Insets(0));
 
-    @Override
-    protected void updateItem(ExternalProject project, boolean empty) {
-        super.updateItem(project, empty);
-        this.project = project;
+        initializePane();
+    }
 
-        if (empty || project.getName().isEmpty()) {
-            setText(null);
-            setGraphic(null);
-            return;
+    private static Image getIcon() {
+        if (icon == null) {
+            icon = ReflectionUtil.loadIcon(48);
         }
 
-        this.hasWriteAccess = EduAPI.hasWritePermission(project.getId());
+        return icon;
+    }
 
-        GridPane pane = new GridPane();
+    private void initializePane() {
         pane.setPadding(new Insets(5));
         pane.setHgap(5);
-        pane.setPrefWidth(getGridView().getPrefWidth());
-
-        if (project.isHidden()) {
-            pane.setBorder(new Border(new BorderStroke(
-                Color.DARKGRAY,           Color.DARKGRAY,           Color.DARKGRAY,           Color.DARKGRAY,
-                BorderStrokeStyle.DASHED, BorderStrokeStyle.DASHED, BorderStrokeStyle.DASHED, BorderStrokeStyle.DASHED,
-                CornerRadii.EMPTY, new BorderWidths(1), Insets.EMPTY
-            )));
-
-            pane.setBackground(new Background(new BackgroundFill(Color.LIGHTGRAY, null, null)));
-        } else {
-            pane.setBorder(new Border(new BorderStroke(
-                null, null, Color.DARKGRAY,          null,
-                null, null, BorderStrokeStyle.SOLID, null,
-                CornerRadii.EMPTY, new BorderWidths(1), Insets.EMPTY
-            )));
-        }
 
         /* Constraints */
 
@@ -90,30 +99,31 @@ public class WorkspaceProjectListCell extends GridCell<ExternalProject> {
 
         /* Content */
 
-        Text name = new Text(project.getName());
-        name.setFont(Font.font(Font.getDefault().getName(), FontWeight.BOLD, 13));
+        name.setFont(NAME_FONT);
 
-        Label description = new Label(project.getDescription());
         description.setWrapText(true);
-        addTooltipIfOverRun(description);
 
-        ImageView icon = new ImageView(ReflectionUtil.loadIcon(48));
+        ImageView imageView = new ImageView(getIcon());
 
         /* Construct GridPane */
 
-        pane.add(icon, 0, 0);
+        pane.add(imageView, 0, 0);
         pane.add(name, 1, 0);
         pane.add(description, 1, 1);
 
-        GridPane.setRowSpan(icon, 2);
+        GridPane.setRowSpan(imageView, 2);
 
         pane.setOnMouseClicked(event -> {
+            if (project == null) {
+                return;
+            }
+
             if (event.getButton() == MouseButton.PRIMARY) {
                 WorkspaceManager.loadProject(project, manager);
             } else if (event.getButton() == MouseButton.SECONDARY) {
                 ContextMenu menu = new ContextMenu();
 
-                if (hasWriteAccess) {
+                if (WorkspaceCache.hasWritePermission(project.getId())) {
                     MenuItem miRename = new MenuItem("Rename");
                     miRename.setOnAction(action -> renameProject());
 
@@ -140,9 +150,36 @@ public class WorkspaceProjectListCell extends GridCell<ExternalProject> {
                 menu.show(pane, event.getScreenX(), event.getScreenY());
             }
         });
+    }
+
+    @Override
+    protected void updateItem(ExternalProject project, boolean empty) {
+        super.updateItem(project, empty);
+        this.project = project;
+
+        if (empty || project.getName().isEmpty()) {
+            setText(null);
+            setGraphic(null);
+            return;
+        }
+
+        WorkspaceCache.requestWritePermission(project.getId());
+
+        pane.setPrefWidth(getGridView().getPrefWidth());
+
+        if (project.isHidden()) {
+            pane.setBorder(HIDDEN_BORDER);
+            pane.setBackground(HIDDEN_BACKGROUND);
+        } else {
+            pane.setBorder(VISIBLE_BORDER);
+            pane.setBackground(null);
+        }
+
+        name.setText(project.getName());
+        description.setText(project.getDescription());
+        addTooltipIfOverRun(description);
 
         setGraphic(pane);
-        setPadding(new Insets(0));
     }
 
     private void editDescription() {
@@ -157,6 +194,8 @@ public class WorkspaceProjectListCell extends GridCell<ExternalProject> {
         Result result = EduAPI.editProject(project.getId(), project.getName(), newDescription);
 
         if (result == Result.OK) {
+            project.setDescription(newDescription);
+            WorkspaceCache.updateProject(project);
             manager.refreshDialog();
             Dialogs.showInfoNotification("Success", "Successfully edited project.");
         } else {
@@ -179,6 +218,8 @@ public class WorkspaceProjectListCell extends GridCell<ExternalProject> {
         Result result = EduAPI.editProject(project.getId(), newName, project.getDescription());
 
         if (result == Result.OK) {
+            project.setName(newName);
+            WorkspaceCache.updateProject(project);
             manager.refreshDialog();
             Dialogs.showInfoNotification("Success", "Successfully renamed project.");
         } else {
@@ -199,6 +240,7 @@ public class WorkspaceProjectListCell extends GridCell<ExternalProject> {
             Result result = EduAPI.deleteProject(project.getId());
 
             if (result == Result.OK) {
+                WorkspaceCache.removeProject(project.getId());
                 manager.refreshDialog();
                 Dialogs.showInfoNotification("Success", "Successfully deleted project.");
             } else {
@@ -220,6 +262,7 @@ public class WorkspaceProjectListCell extends GridCell<ExternalProject> {
             Result result = EduAPI.setProjectHidden(project.getId(), !project.isHidden());
 
             if (result == Result.OK) {
+                project.setHidden(!project.isHidden());
                 manager.refreshDialog();
                 Dialogs.showInfoNotification("Success", "Successfully toggled visibility.");
             } else {
@@ -232,11 +275,14 @@ public class WorkspaceProjectListCell extends GridCell<ExternalProject> {
     }
 
     private void addTooltipIfOverRun(Label label) {
+        label.setTooltip(null);
+
         Platform.runLater(() -> {
             Text actual = ((Text) label.lookup(".text"));
 
-            if (actual != null && actual.getText().endsWith(label.getEllipsisString())) {
-                label.setTooltip(new Tooltip(project.getDescription()));
+            if (project != null && actual != null && actual.getText().endsWith(label.getEllipsisString())) {
+                descriptionTooltip.setText(project.getDescription());
+                label.setTooltip(descriptionTooltip);
             }
         });
     }
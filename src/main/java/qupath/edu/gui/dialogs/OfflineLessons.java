@@ -0,0 +1,150 @@
+package qupath.edu.gui.dialogs;
+
+import javafx.application.Platform;
+import javafx.scene.control.ButtonType;
+import javafx.stage.FileChooser;
+import org.controlsfx.dialog.ProgressDialog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduProject;
+import qupath.edu.api.EduAPI;
+import qupath.edu.server.LessonBundle;
+import qupath.edu.server.LessonBundleExporter;
+import qupath.fx.dialogs.Dialogs;
+import qupath.fx.dialogs.FileChoosers;
+import qupath.lib.gui.QuPathGUI;
+import qupath.lib.projects.ProjectImageEntry;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exports lessons for offline use and opens exported lessons. See {@link LessonBundle}.
+ */
+public class OfflineLessons {
+
+    private static final QuPathGUI qupath = QuPathGUI.getInstance();
+    private static final Logger logger = LoggerFactory.getLogger(OfflineLessons.class);
+
+    private static final Map<String, Double> RESOLUTIONS = new LinkedHashMap<>();
+
+    static {
+        RESOLUTIONS.put("Full resolution", 1.0);
+        RESOLUTIONS.put("2x downsampled", 2.0);
+        RESOLUTIONS.put("4x downsampled", 4.0);
+        RESOLUTIONS.put("8x downsampled", 8.0);
+        RESOLUTIONS.put("16x downsampled", 16.0);
+        RESOLUTIONS.put("Overview only", Double.MAX_VALUE);
+    }
+
+    private static final FileChooser.ExtensionFilter FILTER = new FileChooser.ExtensionFilter(
+        "Offline lessons", "*." + LessonBundle.FILE_EXTENSION
+    );
+
+    public static void exportLesson() {
+        if (!(qupath.getProject() instanceof EduProject project)) {
+            Dialogs.showErrorNotification(
+                "Error",
+                "The current project is not an EduProject -- cannot export lesson."
+            );
+
+            return;
+        }
+
+        String resolution = Dialogs.showChoiceDialog(
+            "Export lesson",
+            "Select the highest resolution to include. Higher resolutions require more disk space and take longer to download.",
+            RESOLUTIONS.keySet(),
+            "4x downsampled"
+        );
+
+        if (resolution == null) {
+            return;
+        }
+
+        File file = FileChoosers.promptToSaveFile(
+            "Export lesson",
+            new File(project.getName() + "." + LessonBundle.FILE_EXTENSION),
+            FILTER
+        );
+
+        if (file == null) {
+            return;
+        }
+
+        if (LessonBundle.isOpen(file.toPath())) {
+            Dialogs.showErrorMessage(
+                "Export lesson",
+                file.getName() + " is open and cannot be replaced. Export the lesson to another file."
+            );
+            return;
+        }
+
+        LessonBundleExporter exporter = new LessonBundleExporter(project, file.toPath(), RESOLUTIONS.get(resolution));
+
+        exporter.setOnSucceeded(e -> Dialogs.showInfoNotification("Export lesson", "Lesson exported to " + file.getName()));
+        exporter.setOnFailed(e -> {
+            logger.error("Error when exporting lesson", exporter.getException());
+
+            Dialogs.showErrorMessage(
+                "Error when exporting lesson",
+                "See log for more information."
+            );
+        });
+
+        ProgressDialog progress = new ProgressDialog(exporter);
+        progress.setTitle("Export lesson");
+        progress.getDialogPane().getButtonTypes().setAll(ButtonType.CANCEL);
+        progress.setOnCloseRequest(e -> exporter.cancel(true));
+
+        qupath.getThreadPoolManager().submitShortTask(exporter);
+        progress.showAndWait();
+    }
+
+    public static void openLesson() {
+        File file = FileChoosers.promptForFile("Open offline lesson", FILTER);
+
+        if (file == null) {
+            return;
+        }
+
+        try {
+            LessonBundle bundle = LessonBundle.open(file.toPath());
+
+            EduProject project = new EduProject(bundle.getProjectData());
+            project.setId(bundle.getId());
+            project.setName(bundle.getName());
+            project.setOffline(true);
+
+            Map<URI, URI> replacements = new HashMap<>();
+
+            bundle.getOriginalURIs().forEach((slideId, uri) -> {
+                URI original = URI.create(uri);
+                String name = original.getFragment() == null ? null : EduAPI.d(original.getFragment());
+
+                replacements.put(original, bundle.createSlideURI(slideId, name));
+            });
+
+            for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
+                entry.updateURIs(replacements);
+            }
+
+            Platform.runLater(() -> {
+                qupath.getAnalysisTabPane().getSelectionModel().select(0);
+                qupath.setProject(project);
+            });
+        } catch (IOException e) {
+            Dialogs.showErrorMessage(
+                "Error when opening offline lesson",
+                "See log for more information."
+            );
+
+            logger.error("Error when opening offline lesson {}", file, e);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package qupath.edu.gui.dialogs;
 
 import com.google.gson.JsonObject;
 import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.binding.BooleanBinding;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ObservableValue;
@@ -13,10 +15,14 @@ import javafx.geometry.HPos;
 import javafx.geometry.Insets;
 import javafx.geometry.Orientation;
 import javafx.scene.control.*;
+import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseButton;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
 import org.controlsfx.control.GridView;
 import org.controlsfx.dialog.ProgressDialog;
@@ -26,20 +32,21 @@ import qupath.edu.EduExtension;
 import qupath.edu.EduOptions;
 import qupath.edu.EduProject;
 import qupath.edu.api.EduAPI;
+import qupath.edu.api.WorkspaceCache;
+import qupath.edu.exceptions.HttpException;
+import qupath.edu.gui.SearchResultListCell;
 import qupath.edu.gui.SubjectListCell;
 import qupath.edu.gui.WorkspaceProjectListCell;
 import qupath.edu.gui.dialogs.openmicroanatomy.SlideManager;
 import qupath.edu.models.ExternalProject;
 import qupath.edu.models.ExternalSubject;
 import qupath.edu.models.ExternalWorkspace;
+import qupath.edu.util.WorkspaceSearchIndex;
 import qupath.fx.dialogs.Dialogs;
 import qupath.lib.gui.QuPathGUI;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 
 import static qupath.edu.api.EduAPI.Result;
 
@@ -50,6 +57,7 @@ public class WorkspaceManager {
     private final SimpleBooleanProperty hasAccessProperty = new SimpleBooleanProperty(false);
     private final SimpleObjectProperty<ExternalWorkspace> currentWorkspace  = new SimpleObjectProperty<>();
     private final SimpleObjectProperty<ExternalSubject>   currentSubject    = new SimpleObjectProperty<>();
+    private final SimpleBooleanProperty loading = new SimpleBooleanProperty(false);
 
     private static Dialog<ButtonType> dialog;
     private final QuPathGUI qupath;
@@ -60,6 +68,16 @@ public class WorkspaceManager {
     private final Accordion accordion = new Accordion();
     private final ObservableList<ExternalProject> currentProjects = FXCollections.observableArrayList();
 
+    private static final int MAX_SEARCH_RESULTS = 50;
+
+    private final TextField tfSearch = new TextField();
+    private final ObservableList<WorkspaceSearchIndex.Entry> searchResults = FXCollections.observableArrayList();
+
+    /**
+     * True while the accordion panes are being replaced, during which expanded pane changes are not user initiated.
+     */
+    private boolean updatingAccordion = false;
+
     public static void showWorkspace(QuPathGUI qupath) {
         WorkspaceManager manager = new WorkspaceManager(qupath);
 
@@ -102,10 +120,6 @@ public class WorkspaceManager {
     private synchronized void initializePane() {
         pane = new BorderPane();
 
-        // TODO: Make this async or make a loading dialog
-
-        List<ExternalWorkspace> workspaces = EduAPI.getAllWorkspaces();
-
         /* Header Buttons */
 
         Button btnLogout = new Button("Logout / change organization");
@@ -181,12 +195,45 @@ public class WorkspaceManager {
         // GridView adds a fixed 18px for the scrollbar and each cell has padding of 10px left and right.
         gvProjects.cellWidthProperty().bind(gvProjects.widthProperty().subtract(18).divide(2).subtract(20));
 
+        Label lblLoading = new Label("Loading workspaces ...");
+        lblLoading.visibleProperty().bind(loading.and(Bindings.isEmpty(accordion.getPanes())));
+
+        /* Search */
+
+        tfSearch.setPromptText("Search workspaces, courses and lessons");
+        tfSearch.textProperty().addListener((obs, oldQuery, newQuery) -> updateSearchResults());
+        tfSearch.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ESCAPE) {
+                tfSearch.clear();
+                e.consume();
+            }
+        });
+
+        ListView<WorkspaceSearchIndex.Entry> lvSearchResults = new ListView<>(searchResults);
+        lvSearchResults.setCellFactory(f -> new SearchResultListCell());
+        lvSearchResults.setPlaceholder(new Label("No matching workspaces, courses or lessons"));
+        lvSearchResults.setOnMouseClicked(e -> {
+            WorkspaceSearchIndex.Entry selected = lvSearchResults.getSelectionModel().getSelectedItem();
+
+            if (selected != null && e.getButton() == MouseButton.PRIMARY) {
+                openSearchResult(selected);
+            }
+        });
+
+        BooleanBinding searching = Bindings.createBooleanBinding(() -> !tfSearch.getText().isBlank(), tfSearch.textProperty());
+
+        lvSearchResults.visibleProperty().bind(searching);
+        accordion.visibleProperty().bind(searching.not());
+
+        StackPane accordionPane = new StackPane(accordion, lvSearchResults, lblLoading);
+        VBox.setVgrow(accordionPane, Priority.ALWAYS);
+
+        VBox workspacePane = new VBox(5, tfSearch, accordionPane);
+
         splitPane = new SplitPane();
         splitPane.setPrefWidth(1000);
         splitPane.setOrientation(Orientation.HORIZONTAL);
-        splitPane.getItems().addAll(accordion, gvProjects);
-
-        createWorkspaceAccordion(workspaces);
+        splitPane.getItems().addAll(workspacePane, gvProjects);
 
         accordion.expandedPaneProperty().addListener(this::onWorkspaceChange);
 
@@ -199,66 +246,241 @@ public class WorkspaceManager {
         BorderPane.setMargin(footer, new Insets(10));
         BorderPane.setMargin(header, new Insets(10));
 
-        // Need to wait for Pane to initialize, otherwise GridView is unable to render any items causing an error.
-        Platform.runLater(this::expandPreviousWorkspace);
+        // Show the cached workspaces immediately and revalidate them in the background.
+        WorkspaceCache.getWorkspaces().ifPresent(workspaces -> {
+            updateWorkspaceAccordion(workspaces);
+
+            // Need to wait for Pane to initialize, otherwise GridView is unable to render any items causing an error.
+            Platform.runLater(this::expandPreviousWorkspace);
+        });
+
+        revalidate();
+    }
+
+    /**
+     * Fetches the workspaces in the background and applies any differences to the accordion once done.
+     */
+    private void revalidate() {
+        loading.set(true);
+
+        qupath.getThreadPoolManager().submitShortTask(() -> {
+            try {
+                List<ExternalWorkspace> workspaces = WorkspaceCache.fetchWorkspaces();
+
+                Platform.runLater(() -> {
+                    boolean firstLoad = accordion.getPanes().isEmpty();
+
+                    updateWorkspaceAccordion(workspaces);
+
+                    if (firstLoad) {
+                        expandPreviousWorkspace();
+                    }
+                });
+            } catch (HttpException e) {
+                logger.error("Error while fetching workspaces", e);
+
+                Platform.runLater(() -> {
+                    if (accordion.getPanes().isEmpty()) {
+                        closeDialog();
+                        EduExtension.showConnectionErrorDialog();
+                    } else {
+                        Dialogs.showErrorNotification("Error", "Error while refreshing workspaces. See log for possibly more details.");
+                    }
+                });
+            } finally {
+                Platform.runLater(() -> loading.set(false));
+            }
+        });
     }
 
-    private void createWorkspaceAccordion(List<ExternalWorkspace> workspaces) {
-        accordion.getPanes().clear();
-        currentProjects.clear();
+    /**
+     * Applies the given workspaces to the accordion in place: existing panes are updated, new workspaces are added
+     * and removed workspaces are dropped. The expanded workspace and selected course are kept when they still exist.
+     */
+    private void updateWorkspaceAccordion(List<ExternalWorkspace> workspaces) {
+        Map<String, TitledPane> existingPanes = new HashMap<>();
+
+        for (TitledPane tpWorkspace : accordion.getPanes()) {
+            existingPanes.put(((ExternalWorkspace) tpWorkspace.getUserData()).getId(), tpWorkspace);
+        }
+
+        List<TitledPane> panes = new ArrayList<>();
 
         for (ExternalWorkspace workspace : workspaces) {
-            if (!belongsToCurrentOrganization(workspace)) {
+            if (!WorkspaceCache.belongsToCurrentOrganization(workspace)) {
                 continue;
             }
 
-            var hasWriteAccess = EduAPI.hasWritePermission(workspace.getId());
+            TitledPane tpWorkspace = existingPanes.get(workspace.getId());
 
-            ListView<ExternalSubject> lvSubjects = new ListView<>();
-            lvSubjects.setCellFactory(f -> new SubjectListCell(this, hasWriteAccess));
-            lvSubjects.getItems().addAll(workspace.getSubjects());
-            lvSubjects.setOnMouseClicked(e -> {
-                ExternalSubject selectedSubject = lvSubjects.getSelectionModel().getSelectedItem();
+            if (tpWorkspace == null) {
+                tpWorkspace = createWorkspacePane(workspace);
+            } else {
+                updateWorkspacePane(tpWorkspace, workspace);
+            }
 
-                if (selectedSubject == null) {
-                    return;
-                }
+            panes.add(tpWorkspace);
+        }
 
-                if (e.getButton() == MouseButton.PRIMARY) {
-                    currentSubject.set(selectedSubject);
-                    currentProjects.setAll(selectedSubject.getProjects());
-                }
-            });
+        if (!accordion.getPanes().equals(panes)) {
+            TitledPane expandedPane = accordion.getExpandedPane();
+
+            updatingAccordion = true;
+            accordion.getPanes().setAll(panes);
+
+            if (panes.contains(expandedPane)) {
+                accordion.setExpandedPane(expandedPane);
+            }
+
+            updatingAccordion = false;
+        }
+
+        updateCurrentSelection();
+        updateSearchResults();
+    }
+
+    private void updateSearchResults() {
+        if (tfSearch.getText().isBlank()) {
+            searchResults.clear();
+        } else {
+            searchResults.setAll(WorkspaceCache.search(tfSearch.getText(), MAX_SEARCH_RESULTS));
+        }
+    }
+
+    /**
+     * Opens a lesson search result like clicking it in the lesson grid, or navigates to a workspace or course result.
+     */
+    private void openSearchResult(WorkspaceSearchIndex.Entry result) {
+        if (result.getType() == WorkspaceSearchIndex.Type.LESSON) {
+            loadProject(result.getProject(), this);
+            return;
+        }
+
+        tfSearch.clear();
+
+        Optional<TitledPane> tpWorkspace = accordion.getPanes()
+                .stream()
+                .filter(pane -> ((ExternalWorkspace) pane.getUserData()).getId().equals(result.getWorkspace().getId()))
+                .findFirst();
+
+        if (tpWorkspace.isEmpty()) {
+            return;
+        }
+
+        accordion.setExpandedPane(tpWorkspace.get());
+
+        if (result.getSubject() == null) {
+            return;
+        }
+
+        ExternalWorkspace workspace = (ExternalWorkspace) tpWorkspace.get().getUserData();
+
+        workspace.findSubject(result.getSubject()).ifPresent(subject -> {
+            @SuppressWarnings("unchecked")
+            ListView<ExternalSubject> lvSubjects = (ListView<ExternalSubject>) tpWorkspace.get().getContent();
+            lvSubjects.getSelectionModel().select(subject);
+
+            currentSubject.set(subject);
+            currentProjects.setAll(subject.getProjects());
+        });
+    }
+
+    private TitledPane createWorkspacePane(ExternalWorkspace workspace) {
+        ListView<ExternalSubject> lvSubjects = new ListView<>();
+        lvSubjects.setCellFactory(f -> new SubjectListCell(this, workspace.getId()));
+        lvSubjects.getItems().addAll(workspace.getSubjects());
+        lvSubjects.setOnMouseClicked(e -> {
+            ExternalSubject selectedSubject = lvSubjects.getSelectionModel().getSelectedItem();
+
+            if (selectedSubject == null) {
+                return;
+            }
+
+            if (e.getButton() == MouseButton.PRIMARY) {
+                currentSubject.set(selectedSubject);
+                currentProjects.setAll(selectedSubject.getProjects());
+            }
+        });
+
+        TitledPane tpWorkspace = new TitledPane(workspace.getName(), lvSubjects);
+        tpWorkspace.setUserData(workspace);
 
-            TitledPane tpWorkspace = new TitledPane(workspace.getName(), lvSubjects);
-            tpWorkspace.setUserData(workspace);
+        // setContextMenu(...) would show up on everywhere on the TitlePane,
+        // setOnMouseClicked(...) only registers when clicking on the header i.e. workspace name
+        tpWorkspace.setOnMouseClicked(e -> {
+            ExternalWorkspace current = (ExternalWorkspace) tpWorkspace.getUserData();
 
-            if (hasWriteAccess) {
+            if (e.getButton() == MouseButton.SECONDARY && WorkspaceCache.hasWritePermission(current.getId())) {
                 MenuItem miRename = new MenuItem("Rename workspace");
-                miRename.setOnAction(a -> renameWorkspace(workspace));
+                miRename.setOnAction(a -> renameWorkspace(current));
 
                 MenuItem miDelete = new MenuItem("Delete workspace");
-                miDelete.setOnAction(a -> deleteWorkspace(workspace));
-
-                // setContextMenu(...) would show up on everywhere on the TitlePane,
-                // setOnMouseClicked(...) only registers when clicking on the header i.e. workspace name
-                tpWorkspace.setOnMouseClicked(e -> {
-                    if (e.getButton() == MouseButton.SECONDARY) {
-                        ContextMenu menu = new ContextMenu(miRename, miDelete);
-                        menu.show(tpWorkspace, e.getScreenX(), e.getScreenY());
-                    }
-                });
+                miDelete.setOnAction(a -> deleteWorkspace(current));
+
+                ContextMenu menu = new ContextMenu(miRename, miDelete);
+                menu.show(tpWorkspace, e.getScreenX(), e.getScreenY());
             }
+        });
+
+        return tpWorkspace;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void updateWorkspacePane(TitledPane tpWorkspace, ExternalWorkspace workspace) {
+        tpWorkspace.setText(workspace.getName());
+        tpWorkspace.setUserData(workspace);
+
+        ListView<ExternalSubject> lvSubjects = (ListView<ExternalSubject>) tpWorkspace.getContent();
+
+        if (!isSameInstances(lvSubjects.getItems(), workspace.getSubjects())) {
+            lvSubjects.getItems().setAll(workspace.getSubjects());
+        }
+
+        // Subjects may have been renamed in place, or the write permission may have changed
+        lvSubjects.refresh();
+    }
+
+    /**
+     * Models are equal by id only, so a refetched tree must be compared by identity to notice new instances.
+     */
+    private static boolean isSameInstances(List<?> a, List<?> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
 
-            accordion.getPanes().add(tpWorkspace);
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
         }
+
+        return true;
     }
 
     /**
-     * Check if the given workspace belongs to the same organization as the user.
+     * Points the current workspace, course and lessons to the latest instances after the accordion was updated.
      */
-    private boolean belongsToCurrentOrganization(ExternalWorkspace workspace) {
-        return Objects.equals(workspace.getOwnerId(), EduAPI.getOrganizationId()) || Objects.equals(workspace.getOwnerId(), EduAPI.getUserId());
+    private void updateCurrentSelection() {
+        TitledPane expandedPane = accordion.getExpandedPane();
+
+        if (expandedPane == null) {
+            currentWorkspace.set(null);
+            currentSubject.set(null);
+            currentProjects.clear();
+            return;
+        }
+
+        ExternalWorkspace workspace = (ExternalWorkspace) expandedPane.getUserData();
+        currentWorkspace.set(workspace);
+
+        if (currentSubject.get() == null) {
+            return;
+        }
+
+        Optional<ExternalSubject> subject = workspace.findSubject(currentSubject.get());
+
+        currentSubject.set(subject.orElse(null));
+        currentProjects.setAll(subject.map(ExternalSubject::getProjects).orElse(List.of()));
     }
 
     private void openById(ActionEvent actionEvent) {
@@ -300,7 +522,7 @@ public class WorkspaceManager {
     }
 
     private void onWorkspaceChange(ObservableValue<? extends TitledPane> obs, TitledPane oldWorkspace, TitledPane newWorkspace) {
-        if (newWorkspace == null) {
+        if (newWorkspace == null || updatingAccordion) {
             return;
         }
 
@@ -312,7 +534,7 @@ public class WorkspaceManager {
         currentWorkspace.set(workspace);
         EduOptions.previousWorkspace().set(workspace.getId());
 
-        var hasWritePermission = EduAPI.hasWritePermission(workspace.getId());
+        var hasWritePermission = WorkspaceCache.hasWritePermission(workspace.getId());
         hasAccessProperty.set(hasWritePermission);
         EduExtension.setWriteAccess(hasWritePermission);
 
@@ -326,39 +548,17 @@ public class WorkspaceManager {
                 });
     }
 
+    /**
+     * Redraws the dialog from the cached workspaces. Changes made to the cached workspaces, e.g. renaming a lesson,
+     * are shown without fetching the workspaces again.
+     */
     public void refreshDialog() {
         if (!Platform.isFxApplicationThread()) {
             Platform.runLater(this::refreshDialog);
             return;
         }
 
-        ExternalWorkspace previousWorkspace;
-
-        if (accordion.getExpandedPane() == null) {
-            previousWorkspace = null;
-        } else {
-            previousWorkspace = ((ExternalWorkspace) accordion.getExpandedPane().getUserData());
-        }
-
-        List<ExternalWorkspace> workspaces = EduAPI.getAllWorkspaces();
-        createWorkspaceAccordion(workspaces);
-
-        // Restore the previously open TitlePane
-
-        if (previousWorkspace == null) {
-            return;
-        }
-
-        accordion.getPanes()
-                .stream()
-                .filter(pane -> previousWorkspace.getId().equals(((ExternalWorkspace) pane.getUserData()).getId()))
-                .findFirst()
-                .ifPresent(pane -> {
-                    accordion.setExpandedPane(pane);
-
-                    // Triggers onWorkspaceChange(); and sets any lessons visible.
-                    currentWorkspace.set(previousWorkspace);
-                });
+        WorkspaceCache.getWorkspaces().ifPresent(this::updateWorkspaceAccordion);
     }
 
     private void createNewLesson() {
@@ -371,7 +571,7 @@ public class WorkspaceManager {
         Result result = EduAPI.createProject(currentSubject.get().getId(), name);
 
         if (result == Result.OK) {
-            refreshDialog();
+            revalidate();
             Dialogs.showInfoNotification("Success", "Successfully created lesson.");
         } else {
             Dialogs.showErrorNotification("Error", "Error when creating lesson. See log for possibly more details.");
@@ -388,7 +588,7 @@ public class WorkspaceManager {
         Result result = EduAPI.createSubject(currentWorkspace.get(), name);
 
         if (result == Result.OK) {
-            refreshDialog();
+            revalidate();
             Dialogs.showInfoNotification("Success", "Successfully created course.");
         } else {
             Dialogs.showErrorNotification("Error", "Error when creating course. See log for possibly more details.");
@@ -405,7 +605,7 @@ public class WorkspaceManager {
         Result result = EduAPI.createWorkspace(name);
 
         if (result == Result.OK) {
-            refreshDialog();
+            revalidate();
             Dialogs.showInfoNotification("Success", "Successfully created workspace");
         } else {
             Dialogs.showErrorNotification("Error", "Error when creating workspace. See log for possibly more details.");
@@ -422,6 +622,7 @@ public class WorkspaceManager {
         Result result = EduAPI.renameWorkspace(workspace.getId(), name);
 
         if (result == Result.OK) {
+            WorkspaceCache.renameWorkspace(workspace.getId(), name);
             refreshDialog();
             Dialogs.showInfoNotification("Success", "Successfully renamed workspace.");
         } else {
@@ -445,6 +646,7 @@ public class WorkspaceManager {
         Result result = EduAPI.deleteWorkspace(workspace.getId());
 
         if (result == Result.OK) {
+            WorkspaceCache.removeWorkspace(workspace.getId());
             refreshDialog();
             Dialogs.showInfoNotification("Success", "Successfully deleted workspace.");
         } else {
@@ -462,6 +664,7 @@ public class WorkspaceManager {
         Result result = EduAPI.renameSubject(subject.getId(), name);
 
         if (result == Result.OK) {
+            WorkspaceCache.renameSubject(subject.getId(), name);
             refreshDialog();
             Dialogs.showInfoNotification("Success", "Successfully course course.");
         } else {
@@ -484,6 +687,7 @@ public class WorkspaceManager {
         Result result = EduAPI.deleteSubject(subject.getId());
 
         if (result == Result.OK) {
+            WorkspaceCache.removeSubject(subject.getId());
             refreshDialog();
             Dialogs.showInfoNotification("Success", "Successfully deleted course.");
         } else {
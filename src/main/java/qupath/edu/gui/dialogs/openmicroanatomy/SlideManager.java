@@ -1,6 +1,7 @@
 package qupath.edu.gui.dialogs.openmicroanatomy;
 
 import com.google.gson.Gson;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.BooleanBinding;
@@ -8,10 +9,9 @@ import javafx.beans.property.ReadOnlyBooleanWrapper;
 import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
 import javafx.collections.transformation.SortedList;
-import javafx.concurrent.Task;
-import javafx.event.ActionEvent;
 import javafx.geometry.Insets;
 import javafx.geometry.Orientation;
 import javafx.scene.control.Button;
@@ -24,24 +24,24 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.text.Text;
-import org.controlsfx.dialog.ProgressDialog;
+import javafx.util.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.edu.EduExtension;
 import qupath.edu.api.EduAPI;
 import qupath.edu.api.Roles;
+import qupath.edu.exceptions.HttpException;
 import qupath.edu.models.ExternalSlide;
 import qupath.edu.server.EduImageServer;
+import qupath.edu.util.BatchingListAppender;
+import qupath.edu.util.SlideSearchIndex;
 import qupath.fx.dialogs.Dialogs;
-import qupath.fx.dialogs.FileChoosers;
 import qupath.fx.utils.GridPaneUtils;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.commands.ProjectCommands;
 import qupath.lib.images.ImageData;
 
 import java.awt.*;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.util.List;
@@ -57,9 +57,13 @@ public class SlideManager {
 
     private static Dialog<ButtonType> dialog;
 
+    private static final Duration FILTER_DELAY = Duration.millis(150);
+
     private BorderPane pane;
     private TableView<ExternalSlide> table;
 
+    private SlideSearchIndex searchIndex;
+
     public static void show() {
         SlideManager manager = new SlideManager();
 
@@ -125,24 +129,22 @@ public class SlideManager {
         TextField filterTextField = new TextField();
         filterTextField.setPromptText("Search by slide name, organization or ID");
 
-        FilteredList<ExternalSlide> filteredData = new FilteredList<>(FXCollections.observableArrayList(EduAPI.getAllSlides()), data -> true);
+        ObservableList<ExternalSlide> slides = FXCollections.observableArrayList();
+        FilteredList<ExternalSlide> filteredData = new FilteredList<>(slides, data -> true);
 
-        filterTextField.textProperty().addListener(((observable, oldValue, newValue) -> {
-            filteredData.setPredicate(data -> {
-                if (newValue == null || newValue.isEmpty() || data.isSelected()) {
-                    return true;
-                }
+        // Filter only once typing pauses, as every change of the predicate re-filters and re-sorts the whole table.
+        PauseTransition filterDelay = new PauseTransition(FILTER_DELAY);
+        filterDelay.setOnFinished(e -> applyFilter(filteredData, filterTextField.getText()));
 
-                String lowerCaseSearch = newValue.toLowerCase();
-                return data.toString().replaceAll("[-+.^:,']", "").toLowerCase().contains(lowerCaseSearch);
-            });
-        }));
+        filterTextField.textProperty().addListener((observable, oldValue, newValue) -> filterDelay.playFromStart());
 
         SortedList<ExternalSlide> sortedData = new SortedList<>(filteredData);
         sortedData.comparatorProperty().bind(table.comparatorProperty());
 
         table.setItems(sortedData);
 
+        loadSlides(slides, filteredData, filterTextField);
+
         /* Buttons */
 
         BooleanBinding hasWriteAccess = Bindings.createBooleanBinding(() -> {
@@ -213,8 +215,17 @@ public class SlideManager {
 
         menuMore.disableProperty().bind(slideSelected.not());
 
-        Button btnUpload = new Button("Import slide");
-        btnUpload.setOnAction(e -> uploadSlide());
+        MenuItem miUploadFiles = new MenuItem("Slides ...");
+        miUploadFiles.setOnAction(e -> UploadManager.promptToUploadFiles());
+
+        MenuItem miUploadDirectory = new MenuItem("Folder ...");
+        miUploadDirectory.setOnAction(e -> UploadManager.promptToUploadDirectory());
+
+        MenuItem miShowUploads = new MenuItem("Show uploads");
+        miShowUploads.setOnAction(e -> UploadManager.show());
+
+        MenuButton btnUpload = new MenuButton("Import ...");
+        btnUpload.getItems().addAll(miUploadFiles, miUploadDirectory, new SeparatorMenuItem(), miShowUploads);
         btnUpload.disableProperty().bind(canManageSlides);
 
         GridPane paneButtons = GridPaneUtils.createColumnGridControls(
@@ -240,6 +251,52 @@ public class SlideManager {
         pane.setPadding(new Insets(10));
     }
 
+    /**
+     * Streams the slides into the table in the background, so that the dialog opens immediately and the first slides
+     * are shown before the whole list has been downloaded. The search index is built once all slides have arrived;
+     * until then the filter is not applied.
+     */
+    private void loadSlides(ObservableList<ExternalSlide> slides, FilteredList<ExternalSlide> filteredData, TextField filterTextField) {
+        table.setPlaceholder(new Text("Loading slides ..."));
+
+        qupath.getThreadPoolManager().submitShortTask(() -> {
+            List<ExternalSlide> fetched = new ArrayList<>();
+            BatchingListAppender<ExternalSlide> appender = new BatchingListAppender<>(slides);
+
+            try {
+                EduAPI.getAllSlides(slide -> {
+                    fetched.add(slide);
+                    appender.accept(slide);
+                });
+            } catch (HttpException e) {
+                Dialogs.showErrorNotification("Error", "Error while fetching slides. See log for possibly more details.");
+            }
+
+            appender.flush();
+
+            SlideSearchIndex index = new SlideSearchIndex(fetched);
+
+            Platform.runLater(() -> {
+                searchIndex = index;
+                table.setPlaceholder(new Text("No slides, none match search criteria or no permissions to list slides."));
+
+                applyFilter(filteredData, filterTextField.getText());
+            });
+        });
+    }
+
+    private void applyFilter(FilteredList<ExternalSlide> filteredData, String query) {
+        if (query == null || query.isBlank() || searchIndex == null) {
+            filteredData.setPredicate(data -> true);
+            return;
+        }
+
+        Set<ExternalSlide> matches = searchIndex.search(query);
+
+        // Checked slides are always shown, so that they can be added together with slides from another search.
+        filteredData.setPredicate(data -> data.isSelected() || matches.contains(data));
+    }
+
     private void addImages() {
         List<String> urls = new ArrayList<>();
 
@@ -377,59 +434,6 @@ public class SlideManager {
                 .showAndWait();
     }
 
-    private static final int CHUNK_BUFFER_SIZE = 1024 * 1024;
-
-    private void uploadSlide() {
-        File file = FileChoosers.promptForFile("Select slide");
-
-        if (file == null) {
-            return;
-        }
-
-        try {
-//            ImageServerBuilder<?> openSlideBuilder = ImageServerProvider.getInstalledImageServerBuilders().stream().filter(
-//                imageServerBuilder -> imageServerBuilder.getName().equalsIgnoreCase("OpenSlide builder")
-//            ).collect(MoreCollectors.onlyElement());
-//
-//            ImageServerBuilder.UriImageSupport<?> support = openSlideBuilder.checkImageSupport(file.toURI());
-//
-//            if (support.getSupportLevel() == 0) {
-//                Dialogs.showWarningNotification("Error uploading slide", "Given file is not supported by OpenSlide.");
-//                return;
-//            }
-
-            Task<Void> task = new UploadSlideTask(file);
-            ProgressDialog progress = new ProgressDialog(task);
-            progress.setTitle("Uploading slide");
-            progress.getDialogPane().setGraphic(null);
-            progress.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
-            progress.getDialogPane().lookupButton(ButtonType.CANCEL).addEventFilter(ActionEvent.ACTION, e -> {
-                if (Dialogs.showYesNoDialog("Cancel upload", "Are you sure you want to stop uploading this slide?")) {
-                    task.cancel();
-                    progress.setHeaderText("Cancelling...");
-                    progress.getDialogPane().lookupButton(ButtonType.CANCEL).setDisable(true);
-                }
-                e.consume();
-            });
-
-            qupath.getThreadPoolManager().submitShortTask(task);
-            progress.showAndWait();
-
-            Dialogs.showMessageDialog(
-                "Successfully uploaded slide",
-                "The slide was successfully uploaded but is pending processing. Processing can take up to 30 minutes." +
-                "\n\n" +
-                "You can view your slide in a few minutes but it is missing higher magnifications until the processing is complete. "
-            );
-
-            refreshDialog();
-        } catch (NoSuchElementException e) {
-            Dialogs.showErrorNotification("Missing OpenSlide", "Please install the OpenSlide extension to import slides.");
-        }/* catch (IOException e) {
-            logger.error("Error while reading file", e);
-        }*/
-    }
-
     private void deleteSlide() {
         boolean confirm = Dialogs.showConfirmDialog(
             "Delete slide",
@@ -487,52 +491,4 @@ public class SlideManager {
             );
         }
     }
-
-    private static class UploadSlideTask extends Task<Void> {
-
-        private final File file;
-        private final String filename;
-        private final long fileSize;
-
-        private int chunkIndex = 0;
-        private final long chunks;
-
-        public UploadSlideTask(File file) {
-            this.file = file;
-            this.filename = file.getName();
-            this.fileSize = file.length();
-            this.chunks = Math.floorDiv(fileSize, CHUNK_BUFFER_SIZE);
-        }
-
-        @Override
-        protected Void call() throws Exception {
-            try (FileInputStream is = new FileInputStream(file)) {
-                byte[] buffer = new byte[CHUNK_BUFFER_SIZE];
-                int read;
-                while ((read = is.read(buffer)) > 0) {
-                    var result = EduAPI.uploadSlideChunk(
-                        filename,
-                        fileSize,
-                        Arrays.copyOf(buffer, read),
-                        CHUNK_BUFFER_SIZE,
-                        chunkIndex
-                    );
-
-                    if (result != Result.OK) {
-                        updateMessage("Error while uploading slide, see log for possibly more details.");
-                        return null;
-                    }
-
-                    double progress = (chunkIndex * 1.0 / chunks) * 100;
-                    updateMessage(String.format("Uploading %.1f%%", progress));
-                    updateProgress(chunkIndex, chunks);
-                    chunkIndex++;
-                }
-            } catch (IOException e) {
-                logger.error("Error while uploading slide", e);
-            }
-
-            return null;
-        }
-    }
 }
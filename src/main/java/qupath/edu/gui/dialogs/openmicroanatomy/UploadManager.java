@@ -0,0 +1,251 @@
+package qupath.edu.gui.dialogs.openmicroanatomy;
+
+import javafx.beans.binding.Bindings;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.*;
+import javafx.scene.control.cell.ProgressBarTableCell;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.text.Text;
+import javafx.stage.FileChooser;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+import qupath.edu.api.SlideUploadQueue;
+import qupath.fx.dialogs.Dialogs;
+import qupath.fx.dialogs.FileChoosers;
+import qupath.fx.utils.GridPaneUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Non-modal dialog for the {@link SlideUploadQueue}. Closing the dialog does not stop the uploads.
+ */
+public class UploadManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(UploadManager.class);
+
+    private static Dialog<ButtonType> dialog;
+
+    private final SlideUploadQueue queue = SlideUploadQueue.getInstance();
+
+    private BorderPane pane;
+    private TableView<SlideUploadQueue.Item> table;
+
+    private UploadManager() {}
+
+    public static void show() {
+        if (dialog != null && dialog.isShowing()) {
+            ((Stage) dialog.getDialogPane().getScene().getWindow()).toFront();
+            return;
+        }
+
+        UploadManager manager = new UploadManager();
+
+        dialog = Dialogs.builder()
+                .title("Slide uploads")
+                .content(manager.getPane())
+                .buttons(ButtonType.CLOSE)
+                .width(700)
+                .height(400)
+                .resizable()
+                .modality(Modality.NONE)
+                .build();
+
+        dialog.setResult(ButtonType.CLOSE);
+        dialog.show();
+    }
+
+    /**
+     * Prompts for slides and adds them to the upload queue.
+     */
+    public static void promptToUploadFiles() {
+        FileChooser.ExtensionFilter filter = new FileChooser.ExtensionFilter(
+            "Slides",
+            SlideUploadQueue.SLIDE_EXTENSIONS.stream().sorted().map(extension -> "*." + extension).toList()
+        );
+
+        List<File> files = FileChoosers.promptForMultipleFiles("Select slides", filter);
+
+        if (files == null || files.isEmpty()) {
+            return;
+        }
+
+        SlideUploadQueue.getInstance().add(files);
+        SlideUploadQueue.getInstance().start();
+
+        show();
+    }
+
+    /**
+     * Prompts for a directory and adds all slides within it to the upload queue.
+     */
+    public static void promptToUploadDirectory() {
+        File directory = FileChoosers.promptForDirectory("Select folder with slides", null);
+
+        if (directory == null) {
+            return;
+        }
+
+        try {
+            int added = SlideUploadQueue.getInstance().addDirectory(directory);
+
+            if (added == 0) {
+                Dialogs.showWarningNotification("No slides found", "The folder contains no slides which are not already queued.");
+                return;
+            }
+
+            SlideUploadQueue.getInstance().start();
+            Dialogs.showInfoNotification("Slides queued", "Added " + added + " slides to the upload queue.");
+        } catch (IOException e) {
+            logger.error("Error while reading folder {}", directory, e);
+            Dialogs.showErrorNotification("Error while reading folder", e.getLocalizedMessage());
+        }
+
+        show();
+    }
+
+    public BorderPane getPane() {
+        if (pane == null) {
+            initializePane();
+        }
+
+        return pane;
+    }
+
+    private synchronized void initializePane() {
+        /* Table */
+
+        table = new TableView<>(queue.getItems());
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        table.setPlaceholder(new Text("No slides queued for upload."));
+        table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+
+        TableColumn<SlideUploadQueue.Item, String> nameColumn = new TableColumn<>("Slide");
+        nameColumn.setCellValueFactory(row -> Bindings.createStringBinding(row.getValue()::getName));
+        nameColumn.setReorderable(false);
+
+        TableColumn<SlideUploadQueue.Item, Double> progressColumn = new TableColumn<>("Progress");
+        progressColumn.setCellValueFactory(row -> row.getValue().progressProperty().asObject());
+        progressColumn.setCellFactory(ProgressBarTableCell.forTableColumn());
+        progressColumn.setReorderable(false);
+        progressColumn.setSortable(false);
+
+        TableColumn<SlideUploadQueue.Item, String> speedColumn = new TableColumn<>("Speed");
+        speedColumn.setCellValueFactory(row -> Bindings.createStringBinding(
+            () -> formatThroughput(row.getValue().throughputProperty().get()),
+            row.getValue().throughputProperty()
+        ));
+        speedColumn.setReorderable(false);
+        speedColumn.setSortable(false);
+        speedColumn.setMinWidth(80);
+        speedColumn.setMaxWidth(80);
+
+        TableColumn<SlideUploadQueue.Item, String> statusColumn = new TableColumn<>("Status");
+        statusColumn.setCellValueFactory(row -> row.getValue().messageProperty());
+        statusColumn.setReorderable(false);
+        statusColumn.setSortable(false);
+
+        table.getColumns().addAll(nameColumn, progressColumn, speedColumn, statusColumn);
+
+        /* Context menu */
+
+        MenuItem miRetry = new MenuItem("Retry");
+        miRetry.setOnAction(e -> List.copyOf(table.getSelectionModel().getSelectedItems()).forEach(queue::retry));
+
+        MenuItem miRemove = new MenuItem("Remove from queue");
+        miRemove.setOnAction(e -> List.copyOf(table.getSelectionModel().getSelectedItems()).forEach(queue::remove));
+
+        table.setContextMenu(new ContextMenu(miRetry, miRemove));
+
+        /* Buttons */
+
+        Button btnAddFiles = new Button("Add slides ...");
+        btnAddFiles.setOnAction(e -> promptToUploadFiles());
+
+        Button btnAddDirectory = new Button("Add folder ...");
+        btnAddDirectory.setOnAction(e -> promptToUploadDirectory());
+
+        Button btnStartPause = new Button();
+        btnStartPause.textProperty().bind(Bindings.when(queue.runningProperty()).then("Pause").otherwise("Start"));
+        btnStartPause.setOnAction(e -> {
+            if (queue.runningProperty().get()) {
+                queue.pause();
+            } else {
+                queue.start();
+            }
+        });
+
+        Button btnClearFinished = new Button("Clear finished");
+        btnClearFinished.setOnAction(e -> queue.clearFinished());
+
+        GridPane paneButtons = GridPaneUtils.createColumnGridControls(
+            btnAddFiles, btnAddDirectory, btnStartPause, btnClearFinished
+        );
+
+        paneButtons.setHgap(5);
+
+        /* Limits */
+
+        Spinner<Double> spnBandwidth = new Spinner<>(0, 1000, EduOptions.uploadBandwidthLimit().get(), 1);
+        spnBandwidth.setEditable(true);
+        spnBandwidth.setPrefWidth(80);
+        spnBandwidth.valueProperty().addListener((obs, oldValue, newValue) -> EduOptions.uploadBandwidthLimit().set(newValue));
+
+        Spinner<Integer> spnParallelChunks = new Spinner<>(1, 16, EduOptions.uploadParallelChunks().get());
+        spnParallelChunks.setEditable(true);
+        spnParallelChunks.setPrefWidth(70);
+        spnParallelChunks.valueProperty().addListener((obs, oldValue, newValue) -> EduOptions.uploadParallelChunks().set(newValue));
+
+        Label lblSummary = new Label();
+        lblSummary.textProperty().bind(Bindings.createStringBinding(
+            this::getSummary, queue.getItems(), queue.throughputProperty()
+        ));
+
+        HBox.setHgrow(lblSummary, Priority.ALWAYS);
+        lblSummary.setMaxWidth(Double.MAX_VALUE);
+
+        HBox paneLimits = new HBox(5,
+            lblSummary,
+            new Label("Bandwidth limit (MB/s, 0 = unlimited)"), spnBandwidth,
+            new Label("Parallel chunks"), spnParallelChunks
+        );
+
+        paneLimits.setAlignment(Pos.CENTER_LEFT);
+
+        /* Pane */
+
+        BorderPane.setMargin(table, new Insets(10, 0, 10, 0));
+
+        pane = new BorderPane();
+        pane.setPrefWidth(700);
+        pane.setPrefHeight(400);
+        pane.setTop(paneButtons);
+        pane.setCenter(table);
+        pane.setBottom(paneLimits);
+        pane.setPadding(new Insets(10));
+    }
+
+    private String getSummary() {
+        long done = queue.getItems().stream().filter(item -> item.statusProperty().get() == SlideUploadQueue.Item.Status.DONE).count();
+        String summary = String.format("%d / %d uploaded", done, queue.getItems().size());
+        String throughput = formatThroughput(queue.throughputProperty().get());
+
+        return throughput.isEmpty() ? summary : summary + " at " + throughput;
+    }
+
+    private static String formatThroughput(double bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            return "";
+        }
+
+        return String.format("%.1f MB/s", bytesPerSecond / (1024 * 1024));
+    }
+}
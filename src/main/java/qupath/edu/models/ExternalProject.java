@@ -1,5 +1,7 @@
 package qupath.edu.models;
 
+import java.util.Objects;
+
 public class ExternalProject {
 
     private String id;
@@ -77,4 +79,17 @@ public class ExternalProject {
     public void setHidden(boolean hidden) {
         this.hidden = hidden;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ExternalProject that = (ExternalProject) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
 }
@@ -1,10 +1,11 @@
 package qupath.edu.models;
 
 import qupath.edu.util.NaturalOrderComparator;
-import qupath.edu.api.EduAPI;
+import qupath.edu.api.WorkspaceCache;
 
 import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -41,17 +42,27 @@ public class ExternalSubject {
     }
 
     /**
-     * Returns an alphabetically sorted list of projects with hidden projects filtered out
+     * Returns an alphabetically sorted list of projects with hidden projects filtered out, unless the user has write
+     * permission to them. Permissions are read from {@link WorkspaceCache}, so this never makes a network request.
      *
      * @return List of ExternalProjects
      */
     public List<ExternalProject> getProjects() {
         return projects.stream()
-                .filter(project -> !(project.isHidden() && !EduAPI.hasWritePermission(project.getId())))
+                .filter(project -> !(project.isHidden() && !WorkspaceCache.hasWritePermission(project.getId())))
                 .sorted(Comparator.comparing(ExternalProject::getName, new NaturalOrderComparator<>()))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * @return all hidden projects, whether the user may see them or not.
+     */
+    public List<ExternalProject> getHiddenProjects() {
+        return projects.stream()
+                .filter(ExternalProject::isHidden)
+                .collect(Collectors.toList());
+    }
+
     public void setProjects(List<ExternalProject> projects) {
         this.projects = projects;
     }
@@ -61,4 +72,21 @@ public class ExternalSubject {
                 .filter(project -> project.getId().equalsIgnoreCase(id))
                 .findFirst();
     }
-}
\ No newline at end of file
+
+    public boolean removeProject(String id) {
+        return projects.removeIf(project -> project.getId().equalsIgnoreCase(id));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ExternalSubject that = (ExternalSubject) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+}
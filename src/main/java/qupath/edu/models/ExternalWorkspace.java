@@ -20,6 +20,10 @@ public class ExternalWorkspace {
         return name;
     }
 
+    public void setName(String name) {
+        this.name = name;
+    }
+
     public String getId() {
         return id;
     }
@@ -46,6 +50,10 @@ public class ExternalWorkspace {
                 .findFirst();
     }
 
+    public boolean removeSubject(String id) {
+        return subjects.removeIf(subject -> subject.getId().equalsIgnoreCase(id));
+    }
+
     public List<ExternalProject> getAllProjects() {
         return getSubjects().stream()
                 .flatMap(s -> s.getProjects().stream())
@@ -65,11 +73,11 @@ public class ExternalWorkspace {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ExternalWorkspace that = (ExternalWorkspace) o;
-        return Objects.equals(name, that.name) && Objects.equals(id, that.id) && Objects.equals(owner, that.owner) && Objects.equals(subjects, that.subjects);
+        return Objects.equals(id, that.id);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, id, owner, subjects);
+        return Objects.hashCode(id);
     }
 }
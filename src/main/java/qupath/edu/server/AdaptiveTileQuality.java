@@ -0,0 +1,165 @@
+package qupath.edu.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+import qupath.edu.api.TileQuality;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether the viewers get low quality tiles first from a tile server, based on the throughput measured
+ * from the tiles downloaded from it. Throughput is measured over busy periods, i.e. the bytes of all tiles downloaded
+ * at once divided by the time during which any download was in flight, as a single tile mostly measures the round
+ * trip and concurrent tiles share the bandwidth. The low quality tiles are replaced with full quality tiles once the view
+ * settles, see {@link ProgressiveTiles#refineLater}.
+ * <p>
+ * Only tile servers whose render region URI templates have quality placeholders are asked for low quality tiles.
+ * A server may still ignore the placeholders; this is detected from the size of the tiles, after which the server is
+ * only asked for full quality tiles.
+ */
+class AdaptiveTileQuality {
+
+    private final static Logger logger = LoggerFactory.getLogger(AdaptiveTileQuality.class);
+
+    /**
+     * Low quality tiles are requested below this throughput, and full quality tiles again above twice this.
+     */
+    private static final double LOW_BYTES_PER_SECOND = 384 * 1024;
+
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+
+    /**
+     * Busy periods are measured at most this long, so that the throughput follows a continuous stream of tiles.
+     */
+    private static final long MAX_PERIOD_NANOS = 1_000_000_000L;
+
+    /**
+     * Shorter busy periods are mostly round trips, which say little about the throughput.
+     */
+    private static final long MIN_PERIOD_NANOS = 250_000_000L;
+
+    private static final int MIN_SAMPLES = 8;
+
+    /**
+     * Low quality tiles which are not at least this much smaller than full quality tiles are not worth the extra
+     * request.
+     */
+    private static final double MAX_SIZE_RATIO = 0.8;
+
+    private static final Map<String, AdaptiveTileQuality> instances = new ConcurrentHashMap<>();
+
+    private final String server;
+    private final boolean supported;
+
+    private double throughput = Double.NaN;
+    private boolean degraded = false;
+    private boolean ignored = false;
+
+    private long periodStart;
+    private long periodEnd;
+    private long periodBytes = 0;
+
+    /**
+     * Average bytes per pixel by quality.
+     */
+    private final double[] bytesPerPixel = new double[TileQuality.values().length];
+    private final int[] samples = new int[TileQuality.values().length];
+
+    private AdaptiveTileQuality(String server) {
+        this.server = server;
+        this.supported = TileQuality.isSupported(server);
+    }
+
+    /**
+     * @param server tile server URI, i.e. the <code>openslide.remoteserver.uri</code> property of a slide.
+     */
+    static AdaptiveTileQuality forServer(String server) {
+        return instances.computeIfAbsent(server, AdaptiveTileQuality::new);
+    }
+
+    /**
+     * @return true if the viewers should get low quality tiles first.
+     */
+    synchronized boolean shouldDegrade() {
+        return supported && !ignored && degraded && EduOptions.adaptiveTileQuality().get();
+    }
+
+    /**
+     * Records a tile downloaded from the tile server, right after the download has finished.
+     *
+     * @param duration nanoseconds taken by the network exchange, without waiting for other requests.
+     * @param pixels width times height of the tile.
+     */
+    synchronized void record(TileQuality quality, int bytes, long duration, int pixels) {
+        if (bytes <= 0 || duration <= 0 || pixels <= 0) {
+            return;
+        }
+
+        int index = quality.ordinal();
+        samples[index]++;
+        bytesPerPixel[index] += ((double) bytes / pixels - bytesPerPixel[index]) / samples[index];
+
+        long end = System.nanoTime();
+        long start = end - duration;
+
+        if (periodBytes > 0 && start > periodEnd) {
+            // Nothing was in flight in between, so the previous busy period is over
+            endPeriod();
+        }
+
+        if (periodBytes == 0) {
+            periodStart = start;
+            periodEnd = end;
+        } else {
+            periodStart = Math.min(periodStart, start);
+            periodEnd = Math.max(periodEnd, end);
+        }
+
+        periodBytes += bytes;
+
+        if (periodEnd - periodStart >= MAX_PERIOD_NANOS) {
+            endPeriod();
+        }
+
+        checkIgnored();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s [throughput: %.0f KB/s, degraded: %s, ignored: %s]", server, throughput / 1024, degraded, ignored);
+    }
+
+    private void endPeriod() {
+        long duration = periodEnd - periodStart;
+
+        if (duration >= MIN_PERIOD_NANOS) {
+            double sample = periodBytes * 1e9 / duration;
+            throughput = Double.isNaN(throughput) ? sample : throughput + THROUGHPUT_SMOOTHING * (sample - throughput);
+
+            if (degraded != (degraded ? throughput < 2 * LOW_BYTES_PER_SECOND : throughput < LOW_BYTES_PER_SECOND)) {
+                degraded = !degraded;
+
+                logger.debug("Throughput of {} is {} KB/s, {} low quality tiles", server, (int) (throughput / 1024), degraded ? "requesting" : "no longer requesting");
+            }
+        }
+
+        periodBytes = 0;
+    }
+
+    private void checkIgnored() {
+        int low = TileQuality.LOW.ordinal();
+        int full = TileQuality.FULL.ordinal();
+
+        if (ignored || samples[low] < MIN_SAMPLES || samples[full] < MIN_SAMPLES) {
+            return;
+        }
+
+        if (bytesPerPixel[low] > bytesPerPixel[full] * MAX_SIZE_RATIO) {
+            ignored = true;
+
+            logger.info("Tile server {} does not serve smaller low quality tiles, requesting only full quality tiles", server);
+        }
+    }
+}
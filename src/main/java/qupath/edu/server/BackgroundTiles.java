@@ -0,0 +1,188 @@
+package qupath.edu.server;
+
+import qupath.lib.images.servers.TileRequest;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the empty regions of a slide, so that tiles which only contain background are not requested again.
+ * <p>
+ * Tiles missing from the tile server are remembered in a negative cache for {@link #MISSING_TTL_NANOS}, as a tile may
+ * be missing only until the slide has been tiled or a mirror has caught up. In addition the tissue bounds of every
+ * z-plane and timepoint are learned from the tiles of the lowest resolution level: once all of them have been read,
+ * tiles outside the bounds are known to be empty without requesting them at all. Missing tiles are not used to learn
+ * the bounds, and no tiles are culled in a plane where no tissue was found at all.
+ */
+class BackgroundTiles {
+
+    /**
+     * Maximum difference per channel for a pixel to be considered background. Scanners add some noise and
+     * compression artifacts to the background.
+     */
+    private static final int BACKGROUND_TOLERANCE = 12;
+
+    private static final long MISSING_TTL_NANOS = 300_000_000_000L;
+
+    private record Plane(int z, int t) {}
+
+    private record TileKey(int level, int x, int y, int z, int t) {
+
+        static TileKey of(TileRequest request) {
+            return new TileKey(request.getLevel(), request.getImageX(), request.getImageY(), request.getZ(), request.getT());
+        }
+    }
+
+    private final Color backgroundColor;
+
+    private final int coarseLevel;
+    private final double coarseDownsample;
+    private final int coarseTileCount;
+
+    /**
+     * Missing tiles and the time they were found missing.
+     */
+    private final Map<TileKey, Long> missingTiles = new ConcurrentHashMap<>();
+    private final Map<Plane, TissueBounds> tissueBounds = new ConcurrentHashMap<>();
+
+    /**
+     * @param backgroundColor background color of the slide, or null if unknown, in which case tissue bounds are not learned.
+     * @param coarseLevel index of the lowest resolution level.
+     * @param coarseDownsample downsample of the lowest resolution level.
+     * @param coarseTileCount number of tiles in the lowest resolution level of a single z-plane and timepoint.
+     */
+    BackgroundTiles(Color backgroundColor, int coarseLevel, double coarseDownsample, int coarseTileCount) {
+        this.backgroundColor = backgroundColor;
+        this.coarseLevel = coarseLevel;
+        this.coarseDownsample = coarseDownsample;
+        this.coarseTileCount = coarseTileCount;
+    }
+
+    /**
+     * Creates a tile filled with the background color. Each call returns a new tile, as tiles end up in the tile cache
+     * of QuPath, where they could be modified.
+     */
+    static BufferedImage createTile(Color color, int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Arrays.fill(((DataBufferInt) img.getRaster().getDataBuffer()).getData(), color.getRGB());
+
+        return img;
+    }
+
+    /**
+     * @return true if the tile is known to be missing or to be outside the tissue.
+     */
+    boolean isKnownEmpty(TileRequest request) {
+        TileKey key = TileKey.of(request);
+        Long missingAt = missingTiles.get(key);
+
+        if (missingAt != null) {
+            if (System.nanoTime() - missingAt < MISSING_TTL_NANOS) {
+                return true;
+            }
+
+            missingTiles.remove(key, missingAt);
+        }
+
+        if (request.getLevel() == coarseLevel) {
+            return false;
+        }
+
+        TissueBounds bounds = tissueBounds.get(new Plane(request.getZ(), request.getT()));
+
+        return bounds != null && !bounds.intersects(request);
+    }
+
+    /**
+     * Remembers that the tile server has no tile for this request.
+     */
+    void markMissing(TileRequest request) {
+        missingTiles.put(TileKey.of(request), System.nanoTime());
+    }
+
+    /**
+     * Forgets the missing tiles, e.g. when the slide has changed on the server.
+     */
+    void clearMissing() {
+        missingTiles.clear();
+    }
+
+    /**
+     * Updates the tissue bounds from a tile of the lowest resolution level; other tiles are ignored.
+     */
+    void learn(TileRequest request, BufferedImage img) {
+        if (backgroundColor == null || img == null || request.getLevel() != coarseLevel) {
+            return;
+        }
+
+        tissueBounds
+            .computeIfAbsent(new Plane(request.getZ(), request.getT()), plane -> new TissueBounds())
+            .add(request, img);
+    }
+
+    private boolean isBackground(int rgb) {
+        return Math.abs(((rgb >> 16) & 0xff) - backgroundColor.getRed()) <= BACKGROUND_TOLERANCE
+            && Math.abs(((rgb >> 8) & 0xff) - backgroundColor.getGreen()) <= BACKGROUND_TOLERANCE
+            && Math.abs((rgb & 0xff) - backgroundColor.getBlue()) <= BACKGROUND_TOLERANCE;
+    }
+
+    /**
+     * Bounding box of non-background pixels of one z-plane and timepoint, in full resolution coordinates. Only complete
+     * once every tile of the lowest resolution level has been added; until then every tile intersects the bounds.
+     */
+    private class TissueBounds {
+
+        private final Set<TileKey> seenTiles = ConcurrentHashMap.newKeySet();
+
+        private double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        private double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+        private volatile boolean complete = false;
+
+        synchronized void add(TileRequest request, BufferedImage img) {
+            if (complete || !seenTiles.add(TileKey.of(request))) {
+                return;
+            }
+
+            int width = img.getWidth();
+            int height = img.getHeight();
+            int[] pixels = img.getRGB(0, 0, width, height, null, 0, width);
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (isBackground(pixels[y * width + x])) {
+                        continue;
+                    }
+
+                    minX = Math.min(minX, request.getImageX() + x * coarseDownsample);
+                    minY = Math.min(minY, request.getImageY() + y * coarseDownsample);
+                    maxX = Math.max(maxX, request.getImageX() + (x + 1) * coarseDownsample);
+                    maxY = Math.max(maxY, request.getImageY() + (y + 1) * coarseDownsample);
+                }
+            }
+
+            complete = seenTiles.size() >= coarseTileCount;
+        }
+
+        /**
+         * The bounds are padded by one pixel of the lowest resolution level, as faint tissue may have been averaged
+         * into the background when downsampling. If no tissue was found, e.g. because it is too faint for the lowest
+         * resolution level, every tile intersects the bounds.
+         */
+        synchronized boolean intersects(TileRequest request) {
+            if (!complete || minX > maxX) {
+                return true;
+            }
+
+            return request.getImageX() < maxX + coarseDownsample
+                && request.getImageX() + request.getImageWidth() > minX - coarseDownsample
+                && request.getImageY() < maxY + coarseDownsample
+                && request.getImageY() + request.getImageHeight() > minY - coarseDownsample;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package qupath.edu.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.images.servers.AbstractTileableImageServer;
+import qupath.lib.images.servers.TileRequest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Prefetches the neighbouring z-planes of the tiles shown in the viewers, so that focusing through a z-stack finds
+ * the tiles of the next planes already downloaded.
+ * <p>
+ * When the viewer reads a tile at plane z, the same tile at planes z&plusmn;1 up to z&plusmn;{@link EduOptions#depthPrefetchRange()}
+ * is queued, nearest planes first. The most recently queued tiles are fetched first, and tiles are dropped from the
+ * queue once they are no longer near the plane being viewed. Only the encoded bytes are fetched, into the
+ * {@link TileByteCache}, where all planes of a tile are kept and evicted together.
+ */
+class DepthPrefetcher {
+
+    private final static Logger logger = LoggerFactory.getLogger(DepthPrefetcher.class);
+
+    private static final int MAX_QUEUED = 512;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, ThreadTools.createThreadFactory("edu-depth-prefetch-", true));
+
+    interface Prefetch {
+        /**
+         * Fetches the tile into the {@link TileByteCache}, unless it is already cached or no longer needed.
+         */
+        void prefetch(TileRequest request) throws IOException;
+    }
+
+    private final AbstractTileableImageServer server;
+    private final Prefetch prefetch;
+
+    private final BlockingDeque<TileRequest> queue = new LinkedBlockingDeque<>();
+    private final Set<TileRequest> queued = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private volatile int currentZ = 0;
+
+    DepthPrefetcher(AbstractTileableImageServer server, Prefetch prefetch) {
+        this.server = server;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Queues the neighbouring planes of a tile read for the viewer.
+     */
+    void viewed(TileRequest request) {
+        int range = EduOptions.depthPrefetchRange().get();
+
+        if (range <= 0 || server.nZSlices() <= 1) {
+            return;
+        }
+
+        currentZ = request.getZ();
+
+        // Farthest planes first, as the queue is read from the front
+        for (int distance = range; distance >= 1; distance--) {
+            queue(request, request.getZ() + distance);
+            queue(request, request.getZ() - distance);
+        }
+
+        while (queue.size() > MAX_QUEUED) {
+            TileRequest oldest = queue.pollLast();
+
+            if (oldest != null) {
+                queued.remove(oldest);
+            }
+        }
+
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void queue(TileRequest request, int z) {
+        if (z < 0 || z >= server.nZSlices()) {
+            return;
+        }
+
+        TileRequest neighbour = server.getTileRequestManager().getTileRequest(request.getLevel(), request.getImageX(), request.getImageY(), z, request.getT());
+
+        if (neighbour != null && queued.add(neighbour)) {
+            queue.offerFirst(neighbour);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            TileRequest request = queue.pollFirst();
+
+            if (request == null) {
+                draining.set(false);
+
+                // A tile may have been queued after the queue was found empty
+                if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+
+                continue;
+            }
+
+            queued.remove(request);
+
+            if (Math.abs(request.getZ() - currentZ) > EduOptions.depthPrefetchRange().get()) {
+                continue;
+            }
+
+            try {
+                prefetch.prefetch(request);
+            } catch (InterruptedIOException e) {
+                draining.set(false);
+                return;
+            } catch (IOException e) {
+                logger.debug("Error when prefetching tile {}", request, e);
+            }
+        }
+    }
+}
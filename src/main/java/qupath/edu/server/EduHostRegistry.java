@@ -0,0 +1,140 @@
+package qupath.edu.server;
+
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+import qupath.edu.api.EduAPI;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Recognizes the URIs of slides served by QuPath Edu servers, so that {@link EduServerBuilder} can answer support
+ * checks without a network request in most cases.
+ * <p>
+ * Slide URIs are of the form <code>https://host/slideId#name</code>. A URI of that form on a known host is an Edu
+ * slide: the configured server {@link EduOptions#host()} and every host from which a slide has been opened before
+ * are known. URIs of any other form, or of web images, are never Edu slides. Only slide URIs on unknown hosts are
+ * probed by requesting the slide properties, and the outcome is remembered for the host.
+ */
+class EduHostRegistry {
+
+    private final static Logger logger = LoggerFactory.getLogger(EduHostRegistry.class);
+
+    /**
+     * Hosts on which a probe failed are not probed again for this long.
+     */
+    private static final long REJECTED_TTL_NANOS = 600_000_000_000L;
+
+    private static final Pattern SLIDE_PATH = Pattern.compile("/[^/]+");
+
+    private static final Pattern IMAGE_EXTENSION = Pattern.compile("(?i).*\\.(jpe?g|png|gif|bmp|webp|tiff?|svs|ndpi|mrxs|scn|vms|czi|zarr)$");
+
+    private static final Set<String> known = ConcurrentHashMap.newKeySet();
+    private static final Map<String, Long> rejected = new ConcurrentHashMap<>();
+
+    static {
+        for (String host : EduOptions.knownSlideHosts().get().split(",")) {
+            if (!host.isBlank()) {
+                known.add(host.strip());
+            }
+        }
+    }
+
+    private EduHostRegistry() {}
+
+    /**
+     * @return true if the URI is a slide on a QuPath Edu server.
+     */
+    static boolean isEduSlide(URI uri) {
+        if (!isSlideURI(uri)) {
+            return false;
+        }
+
+        String origin = getOrigin(uri);
+
+        if (origin.equals(getOrigin(EduOptions.host().get())) || known.contains(origin)) {
+            return true;
+        }
+
+        if (IMAGE_EXTENSION.matcher(uri.getPath()).matches()) {
+            return false;
+        }
+
+        Long rejectedAt = rejected.get(origin);
+
+        if (rejectedAt != null && System.nanoTime() - rejectedAt < REJECTED_TTL_NANOS) {
+            return false;
+        }
+
+        return probe(uri);
+    }
+
+    /**
+     * Remembers the host of a slide which was opened successfully.
+     */
+    static void recordSuccess(URI uri) {
+        String origin = getOrigin(uri);
+
+        rejected.remove(origin);
+
+        if (known.add(origin)) {
+            EduOptions.knownSlideHosts().set(String.join(",", known));
+        }
+    }
+
+    /**
+     * Requests the properties of the slide. On success, the properties are cached so that the server is built
+     * without requesting them again.
+     */
+    private static boolean probe(URI uri) {
+        logger.debug("Probing whether {} is a QuPath Edu slide", uri);
+
+        try {
+            Optional<JsonObject> properties = EduAPI.getSlideProperties(uri);
+
+            if (properties.isPresent() && properties.get().has("openslide.remoteserver.uri")) {
+                SlideMetadataCache.put(uri, properties.get());
+                recordSuccess(uri);
+
+                return true;
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Error when probing {}", uri, e);
+        }
+
+        rejected.put(getOrigin(uri), System.nanoTime());
+        return false;
+    }
+
+    private static boolean isSlideURI(URI uri) {
+        return uri.getScheme() != null
+            && uri.getScheme().toLowerCase(Locale.ROOT).startsWith("http")
+            && uri.getRawAuthority() != null
+            && uri.getRawQuery() == null
+            && uri.getRawPath() != null
+            && SLIDE_PATH.matcher(uri.getRawPath()).matches();
+    }
+
+    private static String getOrigin(URI uri) {
+        return (uri.getScheme() + "://" + uri.getRawAuthority()).toLowerCase(Locale.ROOT);
+    }
+
+    private static String getOrigin(String host) {
+        if (host == null || host.isBlank()) {
+            return "";
+        }
+
+        try {
+            return getOrigin(URI.create(host.strip()));
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+}
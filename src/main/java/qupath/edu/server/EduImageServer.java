@@ -3,17 +3,23 @@ package qupath.edu.server;
 import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+import qupath.edu.api.ClassroomProxy;
 import qupath.edu.api.EduAPI;
+import qupath.edu.api.NetworkScheduler.Priority;
+import qupath.edu.api.TileQuality;
 import qupath.lib.images.servers.*;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 
 /**
  * EduImageServer is based on the {@link qupath.lib.images.servers.openslide.OpenslideImageServer} implementation.
@@ -27,12 +33,40 @@ public class EduImageServer extends AbstractTileableImageServer {
 
     private Color backgroundColor;
 
+    private BackgroundTiles backgroundTiles;
+
+    /**
+     * Tile server of the slide. Updated if the tile server changes when properties read from the
+     * {@link SlideMetadataCache} are revalidated.
+     */
+    private volatile TileFetchLimiter fetchLimiter;
+
+    private volatile TileHedger hedger;
+
+    private volatile TileServerMirrors mirrors;
+
+    private volatile AdaptiveTileQuality adaptiveQuality;
+
+    private ProgressiveTiles progressiveTiles;
+
+    private SuperTiles superTiles;
+
+    private DepthPrefetcher depthPrefetcher;
+
+    /**
+     * Offline lesson containing the slide, or null if the slide is read from the tile server.
+     */
+    private LessonBundle bundle;
+    private String bundleSlideId;
+
+    private JsonObject slideProperties;
+
     private int boundsX, boundsY, boundsWidth, boundsHeight;
 
     private final URI uri;
     private String[] args;
 
-    private String serverURI;
+    private volatile String serverURI;
 
     private static double readJsonPropertyOrDefault(JsonObject json, String parameter, double defaultValue) {
         if (json.has(parameter)) {
@@ -49,16 +83,55 @@ public class EduImageServer extends AbstractTileableImageServer {
         initialize(args);
     }
 
+    /**
+     * Slides opened before are built from their cached properties without waiting for the server, and the
+     * properties are revalidated in the background.
+     */
     private void initialize(String... args) throws IOException {
-        Optional<JsonObject> properties = EduAPI.getSlideProperties(uri);
+        Optional<JsonObject> properties;
+        boolean cached = false;
+
+        if (LessonBundle.isBundleURI(uri)) {
+            bundle = LessonBundle.forURI(uri);
+            bundleSlideId = LessonBundle.getSlideId(uri);
+            properties = bundle.getSlideProperties(bundleSlideId);
+        } else {
+            properties = SlideMetadataCache.get(uri);
+            cached = properties.isPresent();
+
+            if (!cached) {
+                properties = EduAPI.getSlideProperties(uri);
+                properties.ifPresent(json -> SlideMetadataCache.put(uri, json));
+            }
+        }
 
         if (properties.isEmpty()) {
             throw new IOException("Error when loading remote slide, properties were empty. See log for more information");
         }
 
-        JsonObject json = properties.get();
+        try {
+            initialize(properties.get(), args);
+        } catch (RuntimeException e) {
+            if (!cached) {
+                throw e;
+            }
+
+            logger.debug("Invalid cached properties for {}, fetching them again", uri, e);
 
-        this.serverURI = json.get("openslide.remoteserver.uri").getAsString();
+            SlideMetadataCache.remove(uri);
+            initialize(args);
+            return;
+        }
+
+        if (cached) {
+            SlideMetadataCache.revalidate(uri, this::updateSlideProperties);
+        }
+    }
+
+    private void initialize(JsonObject json, String... args) {
+        this.slideProperties = json;
+
+        setTileServer(json);
 
         int width = json.get("openslide.level[0].width").getAsInt();
         int height = json.get("openslide.level[0].height").getAsInt();
@@ -140,6 +213,60 @@ public class EduImageServer extends AbstractTileableImageServer {
             backgroundColor = null;
             logger.debug("Unable to find background color: {}", e.getLocalizedMessage());
         }
+
+        var coarsestLevel = levels.get(levels.size() - 1);
+        int coarseTileCount = (int) (Math.ceil(coarsestLevel.getWidth() / (double) tileWidth) * Math.ceil(coarsestLevel.getHeight() / (double) tileHeight));
+
+        backgroundTiles = new BackgroundTiles(backgroundColor, levels.size() - 1, coarsestLevel.getDownsample(), coarseTileCount);
+        progressiveTiles = new ProgressiveTiles(this, getCache(), this::fetchTile);
+        superTiles = new SuperTiles(this, getCache(), new SuperTiles.RegionFetcher() {
+            @Override
+            public byte[] fetch(int x, int y, int level, int width, int height, int z, int t) throws IOException {
+                return fetchRegion(x, y, level, width, height, z, t, VisibleRegions.isViewerRequest() ? Priority.INTERACTIVE : Priority.PREFETCH);
+            }
+
+            @Override
+            public boolean isCached(int x, int y, int level, int width, int height, int z) {
+                return isRegionCached(x, y, level, width, height, z);
+            }
+        }, backgroundTiles::learn);
+        depthPrefetcher = new DepthPrefetcher(this, this::prefetchTile);
+    }
+
+    private void setTileServer(JsonObject json) {
+        this.serverURI = json.get("openslide.remoteserver.uri").getAsString();
+        this.fetchLimiter = TileFetchLimiter.forServer(serverURI);
+        this.hedger = TileHedger.forServer(serverURI);
+        this.mirrors = TileServerMirrors.forServer(serverURI, readMirrors(json));
+        this.adaptiveQuality = AdaptiveTileQuality.forServer(serverURI);
+
+        ClassroomProxy.allowTileServers(uri, json);
+    }
+
+    /**
+     * Applies properties which changed on the server after the server was built from cached properties. A changed
+     * tile server is used right away; other changes, e.g. to the dimensions, take effect when the slide is opened
+     * again.
+     */
+    private void updateSlideProperties(JsonObject json) {
+        if (!json.has("openslide.remoteserver.uri")) {
+            return;
+        }
+
+        JsonObject previous = slideProperties;
+        this.slideProperties = json;
+
+        setTileServer(json);
+
+        // Tiles missing before may have been tiled since
+        backgroundTiles.clearMissing();
+
+        for (String property : List.of("openslide.level-count", "openslide.level[0].width", "openslide.level[0].height", "openslidex.depth")) {
+            if (!Objects.equals(previous.get(property), json.get(property))) {
+                logger.info("Slide {} has changed on the server, open it again to see the changes", getMetadata().getName());
+                break;
+            }
+        }
     }
 
     @Override
@@ -162,45 +289,376 @@ public class EduImageServer extends AbstractTileableImageServer {
         return "Edu";
     }
 
+    /**
+     * The viewer's placeholders and low quality tiles are cached until the real tile arrives, so other readers fetch
+     * the real tile instead of getting them from the cache.
+     */
     @Override
-    public BufferedImage readTile(TileRequest tileRequest) {
-        int tileX = tileRequest.getImageX() + boundsX;
-        int tileY = tileRequest.getImageY() + boundsY;
-        int level = tileRequest.getLevel();
-        int tileWidth = tileRequest.getTileWidth();
-        int tileHeight = tileRequest.getTileHeight();
-        int depth = tileRequest.getZ();
-
-        URI uriRegion = EduAPI.getRenderRegionURL(
-                this.serverURI,
-                uri.getPath().substring(1),
-                tileX, tileY,
-                level,
-                tileWidth,
-                tileHeight,
-                depth
-        );
+    protected BufferedImage getTile(TileRequest tileRequest) throws IOException {
+        BufferedImage img = super.getTile(tileRequest);
+
+        if (progressiveTiles != null && !ProgressiveTiles.isViewerThread() && progressiveTiles.isPlaceholder(tileRequest.getRegionRequest(), img)) {
+            return fetchTile(tileRequest);
+        }
+
+        return img;
+    }
+
+    @Override
+    public BufferedImage readTile(TileRequest tileRequest) throws IOException {
+        if (bundle != null) {
+            return readBundleTile(tileRequest);
+        }
+
+        if (ProgressiveTiles.isViewerThread()) {
+            depthPrefetcher.viewed(tileRequest);
+        }
+
+        if (backgroundTiles.isKnownEmpty(tileRequest)) {
+            return getBackgroundTile(tileRequest.getTileWidth(), tileRequest.getTileHeight());
+        }
+
+        // A full quality tile which has already been downloaded is decoded right away
+        boolean cached = isRegionCached(tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getLevel(), tileRequest.getTileWidth(), tileRequest.getTileHeight(), tileRequest.getZ());
+
+        if (EduOptions.progressiveTiles().get() && ProgressiveTiles.isViewerThread() && !cached) {
+            // On slow connections a low quality tile arrives sooner than the full quality tile
+            if (adaptiveQuality.shouldDegrade()) {
+                BufferedImage lowQuality = readLowQualityTile(tileRequest);
+
+                if (lowQuality != null && progressiveTiles.refineLater(tileRequest, lowQuality)) {
+                    return lowQuality;
+                }
+            }
+
+            BufferedImage placeholder = progressiveTiles.readLater(tileRequest);
+
+            if (placeholder != null) {
+                return placeholder;
+            }
+        }
+
+        try {
+            return fetchTile(tileRequest);
+        } catch (StaleTileException e) {
+            // Not cached, so the viewer requests the tile again if it becomes visible
+            return null;
+        }
+    }
+
+    /**
+     * Reads a tile from the offline lesson. Levels which were not exported are upscaled from the nearest lower
+     * resolution level in the bundle.
+     */
+    private BufferedImage readBundleTile(TileRequest tileRequest) throws IOException {
+        int tileWidth = getMetadata().getPreferredTileWidth();
+        int tileHeight = getMetadata().getPreferredTileHeight();
+
+        byte[] data = bundle.getTile(bundleSlideId, LessonBundle.tileKey(tileRequest, tileWidth, tileHeight));
+
+        if (data != null) {
+            return TileDecoder.decode(data);
+        }
+
+        for (int level = tileRequest.getLevel() + 1; level < nResolutions(); level++) {
+            TileRequest coarse = getTileRequestManager().getTileRequest(level, tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getZ(), tileRequest.getT());
+
+            if (coarse == null || !ProgressiveTiles.contains(coarse, tileRequest)) {
+                continue;
+            }
+
+            if (bundle.containsTile(bundleSlideId, LessonBundle.tileKey(coarse, tileWidth, tileHeight))) {
+                BufferedImage img = getTile(coarse);
+
+                return img == null ? null : ProgressiveTiles.upscale(img, coarse, tileRequest);
+            }
+        }
+
+        return getBackgroundTile(tileRequest.getTileWidth(), tileRequest.getTileHeight());
+    }
+
+    /**
+     * @return the encoded tile, as downloaded from the tile server or stored in the offline lesson.
+     * @throws IOException if the tile could not be read; the cause is a {@link FileNotFoundException} if the tile does not exist.
+     */
+    byte[] readTileBytes(TileRequest tileRequest) throws IOException {
+        if (bundle != null) {
+            byte[] data = bundle.getTile(bundleSlideId, LessonBundle.tileKey(tileRequest, getMetadata().getPreferredTileWidth(), getMetadata().getPreferredTileHeight()));
+
+            if (data == null) {
+                throw new IOException("Tile not found: " + tileRequest, new FileNotFoundException(tileRequest.toString()));
+            }
+
+            return data;
+        }
+
+        return fetchRegion(tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getLevel(), tileRequest.getTileWidth(), tileRequest.getTileHeight(), tileRequest.getZ(), tileRequest.getT(), Priority.BACKGROUND);
+    }
+
+    /**
+     * @return the encoded thumbnail of the slide, or null if the slide has no thumbnail.
+     */
+    byte[] readThumbnailBytes() throws IOException {
+        if (bundle != null) {
+            return bundle.getThumbnail(bundleSlideId);
+        }
+
+        if (!slideProperties.has("openslide.thumbnail.uri")) {
+            return null;
+        }
 
         try {
-            return ImageIO.read(uriRegion.toURL());
+            return EduAPI.downloadTile(URI.create(slideProperties.get("openslide.thumbnail.uri").getAsString()), Priority.THUMBNAIL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading thumbnail");
+        }
+    }
+
+    JsonObject getSlideProperties() {
+        return slideProperties.deepCopy();
+    }
+
+    String getSlideId() {
+        return bundle != null ? bundleSlideId : uri.getPath().substring(1);
+    }
+
+    private BufferedImage fetchTile(TileRequest tileRequest) throws IOException {
+        try {
+            return superTiles.read(tileRequest, EduOptions.aggregateTileRequests().get());
+        } catch (InterruptedIOException e) {
+            throw e;
         } catch (IOException e) {
-            if (backgroundColor == null && e.getCause().getClass() != FileNotFoundException.class) {
+            if (e.getCause() instanceof FileNotFoundException) {
+                backgroundTiles.markMissing(tileRequest);
+            } else if (backgroundColor == null) {
                 logger.error("Error when loading remotely tile", e);
             }
         }
 
-        if (backgroundColor != null) {
-            BufferedImage img = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
+        return getBackgroundTile(tileRequest.getTileWidth(), tileRequest.getTileHeight());
+    }
+
+    /**
+     * @return the tile in low quality, or null if it could not be read, in which case the full quality tile is read.
+     */
+    private BufferedImage readLowQualityTile(TileRequest tileRequest) {
+        try {
+            return TileDecoder.decode(fetchRegion(tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getLevel(), tileRequest.getTileWidth(), tileRequest.getTileHeight(), tileRequest.getZ(), tileRequest.getT(), Priority.INTERACTIVE, TileQuality.LOW));
+        } catch (IOException e) {
+            logger.debug("Error when loading low quality tile {}", tileRequest, e);
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the encoded tile into the {@link TileByteCache} for the {@link DepthPrefetcher}, unless the tile is
+     * already cached or has gone out of view.
+     */
+    private void prefetchTile(TileRequest tileRequest) throws IOException {
+        if (backgroundTiles.isKnownEmpty(tileRequest) || getCache() != null && getCache().containsKey(tileRequest.getRegionRequest())) {
+            return;
+        }
+
+        if (!VisibleRegions.isShownAtAnyDepth(this, tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getTileWidth(), tileRequest.getTileHeight(), tileRequest.getDownsample(), tileRequest.getT())) {
+            return;
+        }
+
+        try {
+            fetchRegion(tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getLevel(), tileRequest.getTileWidth(), tileRequest.getTileHeight(), tileRequest.getZ(), tileRequest.getT(), Priority.PREFETCH);
+        } catch (IOException e) {
+            if (!(e.getCause() instanceof FileNotFoundException)) {
+                throw e;
+            }
+
+            backgroundTiles.markMissing(tileRequest);
+        }
+    }
+
+    /**
+     * @return render region URI templates of the mirrors of the tile server advertised in the slide properties,
+     *         either as a JSON array or as a comma separated list.
+     */
+    private static List<String> readMirrors(JsonObject json) {
+        if (!json.has("openslide.remoteserver.mirrors")) {
+            return List.of();
+        }
 
-            Graphics2D g2d = img.createGraphics();
-            g2d.setColor(backgroundColor);
-            g2d.fillRect(0, 0, tileWidth, tileHeight);
-            g2d.dispose();
+        var element = json.get("openslide.remoteserver.mirrors");
+        List<String> mirrors = new ArrayList<>();
 
-            return img;
+        if (element.isJsonArray()) {
+            element.getAsJsonArray().forEach(mirror -> mirrors.add(mirror.getAsString()));
+        } else {
+            for (String mirror : element.getAsString().split(",")) {
+                if (!mirror.isBlank()) {
+                    mirrors.add(mirror.strip());
+                }
+            }
         }
 
-        return null;
+        return mirrors;
+    }
+
+    /**
+     * Downloads a region from the tile server, unless its encoded bytes are still in the {@link TileByteCache}.
+     * The region is decoded separately by {@link TileDecoder}, so that decoding does not count against the limit of
+     * concurrent fetches.
+     *
+     * @param x full resolution x-coordinate of the region.
+     * @param y full resolution y-coordinate of the region.
+     * @param width width of the region at the given level.
+     * @param height height of the region at the given level.
+     * @param t timepoint of the region; tile servers have no timepoints, but the viewers track them.
+     * @param priority class of the request, see {@link qupath.edu.api.NetworkScheduler}.
+     */
+    private byte[] fetchRegion(int x, int y, int level, int width, int height, int depth, int t, Priority priority) throws IOException {
+        return fetchRegion(x, y, level, width, height, depth, t, priority, TileQuality.FULL);
+    }
+
+    private byte[] fetchRegion(int x, int y, int level, int width, int height, int depth, int t, Priority priority, TileQuality quality) throws IOException {
+        URI uriRegion = getRegionURI(this.serverURI, x, y, level, width, height, depth, quality);
+        TileFetchLimiter limiter = fetchLimiter;
+        String key = uriRegion.toString();
+
+        byte[] cached = TileByteCache.getInstance().get(key);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to fetch tile");
+        }
+
+        // Fetches for the viewers are aborted once the region is no longer visible
+        VisibleRegions.Fetch fetch = null;
+
+        if (VisibleRegions.isViewerRequest()) {
+            fetch = VisibleRegions.start(this, x, y, width, height, getDownsampleForResolution(level), depth, t);
+
+            if (fetch == null) {
+                limiter.cancel();
+                throw new StaleTileException("Skipped stale tile " + uriRegion);
+            }
+        }
+
+        long start = System.nanoTime();
+        AtomicLong exchange = new AtomicLong(-1);
+        boolean success = false;
+        int bytes = -1;
+
+        try {
+            // Only tiles shown in the viewers are worth extra load on the server
+            byte[] data = priority == Priority.INTERACTIVE
+                ? hedger.fetch((hedge, attempt) -> download(x, y, level, width, height, depth, quality, priority, hedge, attempt), exchange::set)
+                : download(x, y, level, width, height, depth, quality, priority, false, exchange::set);
+            success = true;
+            bytes = data.length;
+
+            adaptiveQuality.record(quality, bytes, exchange.get(), width * height);
+
+            // Exports read every tile of the slide once, which would only evict the tiles being viewed
+            if (priority != Priority.BACKGROUND) {
+                // All z-planes of a tile are cached as one unit
+                TileByteCache.getInstance().put(key, nZSlices() > 1 && quality == TileQuality.FULL ? getColumnKey(x, y, level, width, height) : null, data);
+            }
+
+            return data;
+        } catch (IOException e) {
+            // The server responded, the region just does not exist
+            success = e.getCause() instanceof FileNotFoundException;
+            throw e;
+        } catch (InterruptedException e) {
+            if (fetch != null && fetch.isCancelled()) {
+                throw new StaleTileException("Aborted stale tile " + uriRegion);
+            }
+
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching tile");
+        } finally {
+            if (fetch != null && VisibleRegions.complete(fetch, bytes)) {
+                limiter.cancel();
+            } else {
+                // The network exchange alone, without waiting for the network scheduler or a hedged request
+                long latency = exchange.get();
+                limiter.release(latency < 0 ? System.nanoTime() - start : latency, width * height, success);
+            }
+        }
+    }
+
+    /**
+     * Downloads a region from the fastest healthy mirror of the tile server, failing over to the other mirrors.
+     *
+     * @param hedge true if the download duplicates another download; prefers another mirror than the fastest.
+     * @param exchange receives the nanoseconds taken by the network exchange, see {@link EduAPI#downloadTile(URI, Priority, LongConsumer)}.
+     */
+    private byte[] download(int x, int y, int level, int width, int height, int depth, TileQuality quality, Priority priority, boolean hedge, LongConsumer exchange) throws IOException, InterruptedException {
+        IOException failure = null;
+
+        for (TileServerMirrors.Endpoint endpoint : mirrors.getEndpoints(hedge)) {
+            URI uriRegion = getRegionURI(endpoint.template(), x, y, level, width, height, depth, quality);
+            long start = System.nanoTime();
+
+            try {
+                byte[] data = EduAPI.downloadTile(uriRegion, priority, exchange);
+                mirrors.report(endpoint, System.nanoTime() - start, true);
+
+                return data;
+            } catch (IOException e) {
+                // The region does not exist on any mirror
+                if (e.getCause() instanceof FileNotFoundException) {
+                    mirrors.report(endpoint, System.nanoTime() - start, true);
+                    throw e;
+                }
+
+                mirrors.report(endpoint, System.nanoTime() - start, false);
+                failure = e;
+
+                logger.debug("Error when fetching tile from {}", endpoint.template(), e);
+            }
+        }
+
+        throw failure;
+    }
+
+    private String getColumnKey(int x, int y, int level, int width, int height) {
+        return String.join(":", uri.toString(), String.valueOf(level), String.valueOf(x), String.valueOf(y), String.valueOf(width), String.valueOf(height));
+    }
+
+    private boolean isRegionCached(int x, int y, int level, int width, int height, int depth) {
+        return TileByteCache.getInstance().contains(getRegionURI(x, y, level, width, height, depth).toString());
+    }
+
+    private URI getRegionURI(int x, int y, int level, int width, int height, int depth) {
+        return getRegionURI(this.serverURI, x, y, level, width, height, depth, TileQuality.FULL);
+    }
+
+    private URI getRegionURI(String template, int x, int y, int level, int width, int height, int depth, TileQuality quality) {
+        return EduAPI.getRenderRegionURL(
+                template,
+                getSlideId(),
+                x + boundsX, y + boundsY,
+                level,
+                width,
+                height,
+                depth,
+                quality
+        );
+    }
+
+    /**
+     * @return new background tile, or null if the slide has no background color.
+     */
+    private BufferedImage getBackgroundTile(int tileWidth, int tileHeight) {
+        if (backgroundColor == null) {
+            return null;
+        }
+
+        return BackgroundTiles.createTile(backgroundColor, tileWidth, tileHeight);
     }
 
     @Override
@@ -2,7 +2,6 @@ package qupath.edu.server;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import qupath.lib.images.servers.FileFormatInfo;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerBuilder;
 
@@ -16,7 +15,13 @@ public class EduServerBuilder implements ImageServerBuilder<BufferedImage> {
     @Override
     public ImageServer<BufferedImage> buildServer(URI uri, String...args) {
         try {
-            return new EduImageServer(uri, args);
+            EduImageServer server = new EduImageServer(uri, args);
+
+            if (!LessonBundle.isBundleURI(uri)) {
+                EduHostRegistry.recordSuccess(uri);
+            }
+
+            return server;
         } catch (Exception e) {
             logger.warn("Unable to open {} with EduServer: {}", uri, e.getLocalizedMessage());
         }
@@ -31,10 +36,12 @@ public class EduServerBuilder implements ImageServerBuilder<BufferedImage> {
     }
 
     private static float supportLevel(URI uri, String...args) {
-        FileFormatInfo.ImageCheckType type = FileFormatInfo.checkType(uri);
+        if (LessonBundle.isBundleURI(uri)) {
+            return 5f;
+        }
 
-        if (type.isURL() && uri.getScheme().startsWith("http")) {
-            // TODO: Validate that is proper URL we can handle.
+        // Answered locally unless the URI looks like a slide on an unknown host
+        if (EduHostRegistry.isEduSlide(uri)) {
             return 4f;
         }
 
@@ -0,0 +1,299 @@
+package qupath.edu.server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import qupath.edu.api.EduAPI;
+import qupath.lib.images.servers.TileRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lesson exported for offline use as a single file: the lesson JSON, and the properties, thumbnail and pyramid tiles
+ * of every slide. The file is memory-mapped, so reading a tile is a lookup in the tile index and a copy.
+ * <p>
+ * Slides in a bundle are opened with URIs such as <code>edu-bundle:/path/to/lesson.qpedu?slide=ID#Name</code>,
+ * which {@link EduServerBuilder} opens with an {@link EduImageServer} reading the tiles from the bundle.
+ * <p>
+ * Layout of the file, all numbers big-endian:
+ * <pre>
+ *   MAGIC
+ *   tiles, thumbnails and tile indices of the slides
+ *   index as UTF-8 JSON
+ *   index offset (long), index length (int), MAGIC
+ * </pre>
+ * A tile index is a list of entries sorted by the tile key: key (long), offset (long) and length (int).
+ * See {@link LessonBundleWriter}.
+ */
+public class LessonBundle {
+
+    public static final String SCHEME = "edu-bundle";
+    public static final String FILE_EXTENSION = "qpedu";
+
+    static final byte[] MAGIC = "QPEDUBN1".getBytes(StandardCharsets.US_ASCII);
+    static final int FOOTER_LENGTH = Long.BYTES + Integer.BYTES + MAGIC.length;
+    static final int TILE_INDEX_ENTRY_LENGTH = Long.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private static final Map<Path, LessonBundle> openBundles = new ConcurrentHashMap<>();
+
+    private record Slide(JsonObject properties, long thumbnailOffset, int thumbnailLength, long tileIndexOffset, int tileCount) {}
+
+    private final Path path;
+    private final MappedByteBuffer[] segments;
+
+    private final String id;
+    private final String name;
+    private final String projectData;
+    private final Map<String, Slide> slides = new HashMap<>();
+    private final Map<String, String> originalURIs = new LinkedHashMap<>();
+
+    private LessonBundle(Path path) throws IOException {
+        this.path = path;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size < MAGIC.length + FOOTER_LENGTH) {
+                throw new IOException("Not a lesson bundle: " + path);
+            }
+
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+
+            for (int i = 0; i < segments.length; i++) {
+                long position = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+            }
+
+            ByteBuffer footer = ByteBuffer.wrap(read(size - FOOTER_LENGTH, FOOTER_LENGTH));
+            long indexOffset = footer.getLong();
+            int indexLength = footer.getInt();
+            byte[] magic = new byte[MAGIC.length];
+            footer.get(magic);
+
+            if (!Arrays.equals(magic, MAGIC) || !Arrays.equals(read(0, MAGIC.length), MAGIC)) {
+                throw new IOException("Not a lesson bundle: " + path);
+            }
+
+            JsonObject index = JsonParser.parseString(new String(read(indexOffset, indexLength), StandardCharsets.UTF_8)).getAsJsonObject();
+
+            this.id = index.get("id").getAsString();
+            this.name = index.get("name").getAsString();
+            this.projectData = index.get("project").getAsString();
+
+            for (JsonElement element : index.getAsJsonArray("slides")) {
+                JsonObject slide = element.getAsJsonObject();
+                JsonArray thumbnail = slide.has("thumbnail") ? slide.getAsJsonArray("thumbnail") : null;
+
+                slides.put(slide.get("id").getAsString(), new Slide(
+                    slide.getAsJsonObject("properties"),
+                    thumbnail == null ? -1 : thumbnail.get(0).getAsLong(),
+                    thumbnail == null ? 0 : thumbnail.get(1).getAsInt(),
+                    slide.get("tileIndexOffset").getAsLong(),
+                    slide.get("tileCount").getAsInt()
+                ));
+
+                originalURIs.put(slide.get("id").getAsString(), slide.get("uri").getAsString());
+            }
+        } catch (IllegalStateException | UnsupportedOperationException | NullPointerException e) {
+            throw new IOException("Invalid lesson bundle index: " + path, e);
+        }
+    }
+
+    /**
+     * Opens a bundle, or returns the already opened bundle for the same file.
+     */
+    public static synchronized LessonBundle open(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        LessonBundle bundle = openBundles.get(key);
+
+        if (bundle == null) {
+            bundle = new LessonBundle(key);
+            openBundles.put(key, bundle);
+        }
+
+        return bundle;
+    }
+
+    /**
+     * @return true if the file has been opened as a bundle. Its slides may be read at any time, so the file must not
+     *         be replaced.
+     */
+    public static synchronized boolean isOpen(Path path) {
+        return openBundles.containsKey(path.toAbsolutePath().normalize());
+    }
+
+    public static boolean isBundleURI(URI uri) {
+        return uri != null && SCHEME.equals(uri.getScheme());
+    }
+
+    /**
+     * @throws IOException if the URI is not a bundle URI or the bundle cannot be opened.
+     */
+    public static LessonBundle forURI(URI uri) throws IOException {
+        if (!isBundleURI(uri) || uri.getPath() == null) {
+            throw new IOException("Not a lesson bundle URI: " + uri);
+        }
+
+        try {
+            return open(Path.of(new URI("file", null, uri.getPath(), null)));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid lesson bundle URI: " + uri, e);
+        }
+    }
+
+    public static String getSlideId(URI uri) {
+        String query = uri.getQuery();
+
+        if (query == null || !query.startsWith("slide=")) {
+            return null;
+        }
+
+        return query.substring("slide=".length());
+    }
+
+    /**
+     * @param slideName name shown for the slide, or null to use the slide ID.
+     */
+    public URI createSlideURI(String slideId, String slideName) {
+        // EduImageServer decodes the name from the fragment, as with the URIs of remote slides
+        String fragment = EduAPI.e(slideName == null ? slideId : slideName);
+
+        try {
+            return new URI(SCHEME, null, path.toUri().getPath(), "slide=" + slideId, fragment);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Key of a tile in the tile index.
+     */
+    static long tileKey(int level, int z, int column, int row) {
+        return ((long) level << 58) | ((long) z << 48) | ((long) column << 24) | row;
+    }
+
+    static long tileKey(TileRequest request, int tileWidth, int tileHeight) {
+        int column = (int) Math.round(request.getImageX() / request.getDownsample()) / tileWidth;
+        int row = (int) Math.round(request.getImageY() / request.getDownsample()) / tileHeight;
+
+        return tileKey(request.getLevel(), request.getZ(), column, row);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the lesson as JSON, as accepted by {@link qupath.edu.EduProject}.
+     */
+    public String getProjectData() {
+        return projectData;
+    }
+
+    /**
+     * @return the original URI of every slide, by slide ID.
+     */
+    public Map<String, String> getOriginalURIs() {
+        return Collections.unmodifiableMap(originalURIs);
+    }
+
+    public Optional<JsonObject> getSlideProperties(String slideId) {
+        Slide slide = slides.get(slideId);
+
+        return slide == null ? Optional.empty() : Optional.of(slide.properties().deepCopy());
+    }
+
+    /**
+     * @return the encoded thumbnail, or null if the bundle has none for the slide.
+     */
+    public byte[] getThumbnail(String slideId) {
+        Slide slide = slides.get(slideId);
+
+        if (slide == null || slide.thumbnailOffset() < 0) {
+            return null;
+        }
+
+        return read(slide.thumbnailOffset(), slide.thumbnailLength());
+    }
+
+    /**
+     * @return the encoded tile, or null if the bundle does not contain it.
+     */
+    byte[] getTile(String slideId, long key) {
+        ByteBuffer entry = findTile(slideId, key);
+
+        return entry == null ? null : read(entry.getLong(), entry.getInt());
+    }
+
+    boolean containsTile(String slideId, long key) {
+        return findTile(slideId, key) != null;
+    }
+
+    /**
+     * @return the index entry of the tile positioned after its key, or null if the bundle does not contain the tile.
+     */
+    private ByteBuffer findTile(String slideId, long key) {
+        Slide slide = slides.get(slideId);
+
+        if (slide == null) {
+            return null;
+        }
+
+        int low = 0;
+        int high = slide.tileCount() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long entry = slide.tileIndexOffset() + (long) middle * TILE_INDEX_ENTRY_LENGTH;
+            ByteBuffer buffer = ByteBuffer.wrap(read(entry, TILE_INDEX_ENTRY_LENGTH));
+            long middleKey = buffer.getLong();
+
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return buffer;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Copies bytes from the mapped file; the range may span several segments.
+     */
+    private byte[] read(long position, int length) {
+        byte[] data = new byte[length];
+        int copied = 0;
+
+        while (copied < length) {
+            long current = position + copied;
+            MappedByteBuffer segment = segments[(int) (current / SEGMENT_SIZE)];
+            int offset = (int) (current % SEGMENT_SIZE);
+            int count = Math.min(length - copied, segment.capacity() - offset);
+
+            segment.get(offset, data, copied, count);
+            copied += count;
+        }
+
+        return data;
+    }
+}
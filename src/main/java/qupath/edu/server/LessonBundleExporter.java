@@ -0,0 +1,189 @@
+package qupath.edu.server;
+
+import javafx.concurrent.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduProject;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.projects.ProjectImageEntry;
+
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports a lesson and its slides as a {@link LessonBundle}, so that the lesson can be studied without a connection
+ * to the server.
+ * <p>
+ * Only resolution levels with a downsample of at least <code>minDownsample</code> are exported, and always the lowest
+ * resolution level; higher resolutions are upscaled when viewing the bundle. Only the first timepoint is exported.
+ */
+public class LessonBundleExporter extends Task<Path> {
+
+    private final static Logger logger = LoggerFactory.getLogger(LessonBundleExporter.class);
+
+    private static final int DOWNLOAD_THREADS = 8;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final EduProject project;
+    private final Path target;
+    private final double minDownsample;
+
+    private record Slide(EduImageServer server, List<TileRequest> tiles) {}
+
+    public LessonBundleExporter(EduProject project, Path target, double minDownsample) {
+        this.project = project;
+        this.target = target;
+        this.minDownsample = minDownsample;
+    }
+
+    @Override
+    protected Path call() throws Exception {
+        updateMessage("Reading slides");
+
+        Map<URI, Slide> slides = new LinkedHashMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+            DOWNLOAD_THREADS,
+            ThreadTools.createThreadFactory("edu-lesson-export-", true)
+        );
+
+        try {
+            for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
+                URI uri = entry.getURIs().stream().findFirst().orElse(null);
+
+                if (uri == null || slides.containsKey(uri)) {
+                    continue;
+                }
+
+                ImageServer<BufferedImage> server = entry.getServerBuilder().build();
+
+                if (!(server instanceof EduImageServer eduServer)) {
+                    logger.warn("Skipping {} when exporting lesson, only slides on the server can be exported", entry.getImageName());
+                    server.close();
+                    continue;
+                }
+
+                slides.put(uri, new Slide(eduServer, getTilesToExport(eduServer)));
+            }
+
+            long total = slides.values().stream().mapToLong(slide -> slide.tiles().size()).sum();
+            AtomicLong done = new AtomicLong();
+
+            try (LessonBundleWriter writer = new LessonBundleWriter(target)) {
+                int index = 0;
+
+                for (var entry : slides.entrySet()) {
+                    EduImageServer server = entry.getValue().server();
+
+                    updateMessage(String.format("Downloading slide %d of %d", ++index, slides.size()));
+
+                    int tileWidth = server.getMetadata().getPreferredTileWidth();
+                    int tileHeight = server.getMetadata().getPreferredTileHeight();
+
+                    Map<Long, LessonBundleWriter.Blob> tiles = new ConcurrentHashMap<>();
+                    List<Future<?>> futures = new ArrayList<>();
+
+                    for (TileRequest request : entry.getValue().tiles()) {
+                        futures.add(executor.submit(() -> {
+                            if (isCancelled()) {
+                                return null;
+                            }
+
+                            byte[] data = download(server, request);
+
+                            if (data != null) {
+                                tiles.put(LessonBundle.tileKey(request, tileWidth, tileHeight), writer.write(data));
+                            }
+
+                            updateProgress(done.incrementAndGet(), total);
+
+                            return null;
+                        }));
+                    }
+
+                    for (Future<?> future : futures) {
+                        try {
+                            future.get();
+                        } catch (ExecutionException e) {
+                            if (e.getCause() instanceof IOException cause) {
+                                throw cause;
+                            }
+
+                            throw new IOException("Error when downloading slide " + entry.getKey(), e.getCause());
+                        }
+                    }
+
+                    if (isCancelled()) {
+                        throw new CancellationException();
+                    }
+
+                    byte[] thumbnail = server.readThumbnailBytes();
+
+                    writer.addSlide(
+                        server.getSlideId(),
+                        entry.getKey().toString(),
+                        server.getSlideProperties(),
+                        thumbnail == null ? null : writer.write(thumbnail),
+                        tiles
+                    );
+                }
+
+                updateMessage("Writing lesson");
+                writer.finish(project.getId(), project.getName(), project.toJson());
+            }
+        } finally {
+            executor.shutdownNow();
+
+            for (Slide slide : slides.values()) {
+                try {
+                    slide.server().close();
+                } catch (Exception e) {
+                    logger.debug("Error when closing server", e);
+                }
+            }
+        }
+
+        return target;
+    }
+
+    private List<TileRequest> getTilesToExport(EduImageServer server) {
+        int coarsestLevel = server.nResolutions() - 1;
+
+        return server.getTileRequestManager().getAllTileRequests().stream()
+            .filter(request -> request.getT() == 0)
+            .filter(request -> request.getLevel() == coarsestLevel || request.getDownsample() >= minDownsample - 1e-3)
+            .toList();
+    }
+
+    /**
+     * @return the encoded tile, or null if the server does not have the tile.
+     */
+    private byte[] download(EduImageServer server, TileRequest request) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return server.readTileBytes(request);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (e.getCause() instanceof FileNotFoundException) {
+                    return null;
+                }
+
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+
+                logger.debug("Retrying tile {} after error: {}", request, e.getLocalizedMessage());
+            }
+        }
+    }
+}
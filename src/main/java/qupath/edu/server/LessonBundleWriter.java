@@ -0,0 +1,145 @@
+package qupath.edu.server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import qupath.lib.io.GsonTools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes a {@link LessonBundle}. Blobs such as tiles may be written from several threads; the bundle is written to
+ * a temporary file which replaces the target only once {@link #finish(String, String, String)} has succeeded. Bundles
+ * which are open are memory mapped, so they are never replaced.
+ */
+class LessonBundleWriter implements Closeable {
+
+    /**
+     * Location of a blob within the bundle.
+     */
+    record Blob(long offset, int length) {}
+
+    private final Path target;
+    private final Path temporary;
+    private final FileChannel channel;
+
+    private final JsonArray slides = new JsonArray();
+
+    private long position = 0;
+    private boolean finished = false;
+
+    LessonBundleWriter(Path target) throws IOException {
+        checkNotOpen(target);
+
+        this.target = target;
+        this.temporary = target.resolveSibling(target.getFileName() + ".part");
+        this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        write(LessonBundle.MAGIC);
+    }
+
+    synchronized Blob write(byte[] data) throws IOException {
+        Blob blob = new Blob(position, data.length);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        return blob;
+    }
+
+    /**
+     * Writes the tile index of a slide and adds the slide to the bundle.
+     *
+     * @param uri original URI of the slide.
+     * @param thumbnail encoded thumbnail, or null if the slide has no thumbnail.
+     * @param tiles encoded tiles by {@link LessonBundle#tileKey(int, int, int, int)}.
+     */
+    synchronized void addSlide(String id, String uri, JsonObject properties, Blob thumbnail, Map<Long, Blob> tiles) throws IOException {
+        Map<Long, Blob> sorted = new TreeMap<>(tiles);
+        ByteBuffer index = ByteBuffer.allocate(sorted.size() * LessonBundle.TILE_INDEX_ENTRY_LENGTH);
+
+        sorted.forEach((key, blob) -> index
+            .putLong(key)
+            .putLong(blob.offset())
+            .putInt(blob.length())
+        );
+
+        Blob tileIndex = write(index.array());
+
+        JsonObject slide = new JsonObject();
+        slide.addProperty("id", id);
+        slide.addProperty("uri", uri);
+        slide.add("properties", properties);
+        slide.addProperty("tileIndexOffset", tileIndex.offset());
+        slide.addProperty("tileCount", sorted.size());
+
+        if (thumbnail != null) {
+            JsonArray location = new JsonArray();
+            location.add(thumbnail.offset());
+            location.add(thumbnail.length());
+
+            slide.add("thumbnail", location);
+        }
+
+        slides.add(slide);
+    }
+
+    /**
+     * Writes the index and moves the bundle to its target.
+     *
+     * @param projectData the lesson as JSON.
+     */
+    synchronized void finish(String id, String name, String projectData) throws IOException {
+        JsonObject index = new JsonObject();
+        index.addProperty("version", 1);
+        index.addProperty("id", id);
+        index.addProperty("name", name);
+        index.addProperty("project", projectData);
+        index.add("slides", slides);
+
+        Blob blob = write(GsonTools.getInstance().toJson(index).getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer footer = ByteBuffer.allocate(LessonBundle.FOOTER_LENGTH)
+            .putLong(blob.offset())
+            .putInt(blob.length())
+            .put(LessonBundle.MAGIC);
+
+        write(footer.array());
+
+        channel.force(true);
+        channel.close();
+
+        checkNotOpen(target);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        finished = true;
+    }
+
+    private static void checkNotOpen(Path target) throws IOException {
+        if (LessonBundle.isOpen(target)) {
+            throw new IOException("Lesson " + target + " is open and cannot be replaced");
+        }
+    }
+
+    /**
+     * Closes the writer; the temporary file is deleted unless the bundle was finished.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+
+        if (!finished) {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package qupath.edu.server;
+
+import javafx.application.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.gui.QuPathGUI;
+import qupath.lib.gui.viewer.QuPathViewer;
+import qupath.lib.images.servers.AbstractTileableImageServer;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serves tiles for the viewer progressively: while a tile is being fetched, the viewer gets an upscaled crop of the
+ * nearest lower resolution tile which is already cached. Once the real tile arrives it replaces the placeholder in
+ * the tile cache and the viewers showing the slide are repainted. On slow connections the placeholder may also be a
+ * low quality tile, which is refined once the view settles, see {@link AdaptiveTileQuality}.
+ * <p>
+ * Placeholders are only returned to the viewer's tile threads, but they are kept in the tile cache until the real
+ * tile arrives. Everything else reading the slide, e.g. commands exporting or analyzing regions, must check cached
+ * tiles with {@link #isPlaceholder} and read the real tile instead.
+ */
+class ProgressiveTiles {
+
+    private final static Logger logger = LoggerFactory.getLogger(ProgressiveTiles.class);
+
+    /**
+     * Name prefix of the threads the viewer uses to request tiles. QuPath has no API to tell the viewer's requests
+     * apart, so the prefix is only relied on in the versions of QuPath it has been checked against.
+     */
+    private static final String VIEWER_THREAD_PREFIX = "region-store";
+
+    private static final boolean VIEWER_THREADS_KNOWN = QuPathGUI.getVersion() != null
+        && QuPathGUI.getVersion().getMajor() == 0
+        && QuPathGUI.getVersion().getMinor() == 6;
+
+    static {
+        if (!VIEWER_THREADS_KNOWN) {
+            logger.warn("Unable to tell the viewer's tile requests apart in QuPath {}, tiles are fetched without placeholders, prefetching or aborting", QuPathGUI.getVersion());
+        }
+    }
+
+    private static final String FETCH_THREAD_PREFIX = "edu-tile-fetch-";
+
+    /**
+     * The placeholder is cached right after it has been returned; a very fast fetch may finish before that.
+     */
+    private static final int PLACEHOLDER_WAIT_MILLIS = 50;
+    private static final int PLACEHOLDER_WAIT_ATTEMPTS = 20;
+
+    /**
+     * Low quality tiles are refined once the viewers have not moved for this long.
+     */
+    private static final long SETTLE_MILLIS = 300;
+
+    /**
+     * Fetches are limited by the {@link TileFetchLimiter} of the tile server, so more threads would only wait.
+     */
+    private static final int FETCH_THREADS = 16;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(FETCH_THREADS, ThreadTools.createThreadFactory(FETCH_THREAD_PREFIX, true));
+
+    /**
+     * Waits for the view to settle before refining low quality tiles, so that the waits do not hold fetch threads.
+     */
+    private static final ExecutorService refiner = Executors.newSingleThreadExecutor(ThreadTools.createThreadFactory("edu-tile-refine-", true));
+
+    interface TileFetcher {
+        BufferedImage fetch(TileRequest request) throws IOException;
+    }
+
+    private final AbstractTileableImageServer server;
+    private final Map<RegionRequest, BufferedImage> cache;
+    private final TileFetcher fetcher;
+
+    /**
+     * Latest placeholder of every tile being fetched.
+     */
+    private final Map<RegionRequest, BufferedImage> pending = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean repaintScheduled = new AtomicBoolean(false);
+
+    /**
+     * @param cache tile cache of the server, shared with the viewer.
+     */
+    ProgressiveTiles(AbstractTileableImageServer server, Map<RegionRequest, BufferedImage> cache, TileFetcher fetcher) {
+        this.server = server;
+        this.cache = cache;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * @return true if the current thread requests tiles for the viewer; always false in versions of QuPath whose
+     *         viewer threads are not known.
+     */
+    static boolean isViewerThread() {
+        return VIEWER_THREADS_KNOWN && Thread.currentThread().getName().startsWith(VIEWER_THREAD_PREFIX);
+    }
+
+    /**
+     * @return true if the current thread fetches a tile for which the viewer got a placeholder. Unlike the viewer's
+     *         threads, these threads are owned by the extension and may be interrupted.
+     */
+    static boolean isFetchThread() {
+        return Thread.currentThread().getName().startsWith(FETCH_THREAD_PREFIX);
+    }
+
+    /**
+     * @return true if the image is the placeholder of a tile still being fetched, e.g. as found in the tile cache.
+     */
+    boolean isPlaceholder(RegionRequest key, BufferedImage img) {
+        return img != null && pending.get(key) == img;
+    }
+
+    /**
+     * Returns a placeholder for the tile and fetches the real tile in the background.
+     *
+     * @return placeholder, or null if no lower resolution tile is cached.
+     */
+    BufferedImage readLater(TileRequest request) {
+        if (cache == null) {
+            return null;
+        }
+
+        BufferedImage placeholder = createPlaceholder(request);
+
+        if (placeholder == null) {
+            return null;
+        }
+
+        RegionRequest key = request.getRegionRequest();
+
+        if (pending.put(key, placeholder) == null) {
+            executor.execute(() -> fetch(request, key));
+        }
+
+        return placeholder;
+    }
+
+    /**
+     * Uses a low quality tile as the placeholder for the tile, and fetches the real tile once the view settles.
+     *
+     * @return false if the placeholder cannot be replaced later, in which case it should not be used.
+     */
+    boolean refineLater(TileRequest request, BufferedImage placeholder) {
+        if (cache == null) {
+            return false;
+        }
+
+        RegionRequest key = request.getRegionRequest();
+
+        if (pending.put(key, placeholder) == null) {
+            refiner.execute(() -> {
+                try {
+                    VisibleRegions.awaitSettled(SETTLE_MILLIS);
+                } catch (InterruptedException e) {
+                    pending.remove(key);
+                    return;
+                }
+
+                executor.execute(() -> fetch(request, key));
+            });
+        }
+
+        return true;
+    }
+
+    private BufferedImage createPlaceholder(TileRequest request) {
+        for (int level = request.getLevel() + 1; level < server.nResolutions(); level++) {
+            TileRequest coarse = server.getTileRequestManager().getTileRequest(level, request.getImageX(), request.getImageY(), request.getZ(), request.getT());
+
+            if (coarse == null || !contains(coarse, request)) {
+                continue;
+            }
+
+            BufferedImage img = cache.get(coarse.getRegionRequest());
+
+            if (img != null) {
+                return upscale(img, coarse, request);
+            }
+        }
+
+        return null;
+    }
+
+    static boolean contains(TileRequest coarse, TileRequest request) {
+        return coarse.getImageX() <= request.getImageX()
+            && coarse.getImageY() <= request.getImageY()
+            && coarse.getImageX() + coarse.getImageWidth() >= request.getImageX() + request.getImageWidth()
+            && coarse.getImageY() + coarse.getImageHeight() >= request.getImageY() + request.getImageHeight();
+    }
+
+    /**
+     * @return the region of <code>request</code> cropped from the lower resolution tile and scaled to the tile size.
+     */
+    static BufferedImage upscale(BufferedImage img, TileRequest coarse, TileRequest request) {
+        double downsample = coarse.getDownsample();
+
+        int x1 = (int) Math.floor((request.getImageX() - coarse.getImageX()) / downsample);
+        int y1 = (int) Math.floor((request.getImageY() - coarse.getImageY()) / downsample);
+        int x2 = Math.min(img.getWidth(), (int) Math.ceil((request.getImageX() + request.getImageWidth() - coarse.getImageX()) / downsample));
+        int y2 = Math.min(img.getHeight(), (int) Math.ceil((request.getImageY() + request.getImageHeight() - coarse.getImageY()) / downsample));
+
+        int type = img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage placeholder = new BufferedImage(request.getTileWidth(), request.getTileHeight(), type);
+
+        Graphics2D g2d = placeholder.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(img, 0, 0, placeholder.getWidth(), placeholder.getHeight(), x1, y1, x2, y2, null);
+        g2d.dispose();
+
+        return placeholder;
+    }
+
+    private void fetch(TileRequest request, RegionRequest key) {
+        BufferedImage img = null;
+
+        try {
+            img = fetcher.fetch(request);
+        } catch (IOException e) {
+            logger.debug("Error when fetching tile {}", request, e);
+        }
+
+        try {
+            replacePlaceholder(key, img);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.remove(key);
+        }
+    }
+
+    /**
+     * Replaces the placeholder in the cache with the real tile, or removes it if the tile could not be fetched,
+     * so that it is requested again.
+     */
+    private void replacePlaceholder(RegionRequest key, BufferedImage img) throws InterruptedException {
+        for (int attempt = 0; attempt < PLACEHOLDER_WAIT_ATTEMPTS; attempt++) {
+            BufferedImage current = cache.get(key);
+
+            if (current != null) {
+                // The tile may also have arrived with a block of tiles fetched for another tile
+                if (current == pending.get(key) || current == img) {
+                    if (img == null) {
+                        cache.remove(key);
+                    } else {
+                        cache.put(key, img);
+                    }
+
+                    repaintViewers();
+                }
+
+                return;
+            }
+
+            Thread.sleep(PLACEHOLDER_WAIT_MILLIS);
+        }
+
+        // The placeholder was already evicted from the cache
+        if (img != null) {
+            cache.put(key, img);
+        }
+    }
+
+    /**
+     * Repaints the viewers showing the slide. Tiles arriving close together share a single repaint.
+     */
+    private void repaintViewers() {
+        if (!repaintScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        Platform.runLater(() -> {
+            repaintScheduled.set(false);
+
+            QuPathGUI qupath = QuPathGUI.getInstance();
+
+            if (qupath == null) {
+                return;
+            }
+
+            for (QuPathViewer viewer : qupath.getAllViewers()) {
+                if (viewer.getServer() == server) {
+                    viewer.repaintEntireImage();
+                }
+            }
+        });
+    }
+}
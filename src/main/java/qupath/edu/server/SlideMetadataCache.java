@@ -0,0 +1,172 @@
+package qupath.edu.server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.api.EduAPI;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.gui.UserDirectoryManager;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the properties of remote slides in memory and on disk, so that an {@link EduImageServer} can be built
+ * without waiting for the server, e.g. when opening a slide again or loading a lesson. Cached properties are
+ * revalidated in the background; changes are stored for the next time the slide is opened and passed to the server
+ * which requested the revalidation.
+ * <p>
+ * Properties are kept when revalidating fails, so that previously opened slides can still be opened while the
+ * server is unreachable.
+ */
+class SlideMetadataCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(SlideMetadataCache.class);
+
+    /**
+     * Slides are revalidated at most this often, as servers are built every time a slide is opened.
+     */
+    private static final long REVALIDATE_INTERVAL_NANOS = 600_000_000_000L;
+
+    private static final Map<String, JsonObject> properties = new ConcurrentHashMap<>();
+    private static final Map<String, Long> revalidated = new ConcurrentHashMap<>();
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(ThreadTools.createThreadFactory("edu-slide-metadata-", true));
+
+    private SlideMetadataCache() {}
+
+    /**
+     * @return a copy of the cached properties of the slide, or empty if none are cached.
+     */
+    static Optional<JsonObject> get(URI uri) {
+        String key = getKey(uri);
+        JsonObject json = properties.get(key);
+
+        if (json == null) {
+            json = read(key);
+
+            if (json != null) {
+                properties.put(key, json);
+            }
+        }
+
+        return json == null ? Optional.empty() : Optional.of(json.deepCopy());
+    }
+
+    static void put(URI uri, JsonObject json) {
+        String key = getKey(uri);
+
+        properties.put(key, json.deepCopy());
+        revalidated.put(key, System.nanoTime());
+
+        try {
+            Path path = getPath(key);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, json.toString(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.debug("Unable to cache properties of slide {}", uri, e);
+        }
+    }
+
+    static void remove(URI uri) {
+        String key = getKey(uri);
+
+        properties.remove(key);
+        revalidated.remove(key);
+
+        try {
+            Files.deleteIfExists(getPath(key));
+        } catch (IOException e) {
+            logger.debug("Unable to remove cached properties of slide {}", uri, e);
+        }
+    }
+
+    /**
+     * Fetches the properties of the slide in the background, unless they were fetched recently.
+     *
+     * @param onChanged called with the new properties if they have changed.
+     */
+    static void revalidate(URI uri, Consumer<JsonObject> onChanged) {
+        String key = getKey(uri);
+        long now = System.nanoTime();
+        Long previous = revalidated.get(key);
+
+        if (previous != null && now - previous < REVALIDATE_INTERVAL_NANOS) {
+            return;
+        }
+
+        // Another server of the same slide may be revalidating it already
+        boolean claimed = previous == null ? revalidated.putIfAbsent(key, now) == null : revalidated.replace(key, previous, now);
+
+        if (!claimed) {
+            return;
+        }
+
+        executor.execute(() -> {
+            Optional<JsonObject> fetched = EduAPI.getSlideProperties(uri);
+
+            if (fetched.isEmpty()) {
+                logger.debug("Unable to revalidate properties of slide {}, using cached properties", uri);
+                return;
+            }
+
+            if (fetched.get().equals(properties.get(key))) {
+                return;
+            }
+
+            put(uri, fetched.get());
+            onChanged.accept(fetched.get().deepCopy());
+        });
+    }
+
+    /**
+     * The name of the slide is stored in the fragment of the URI, so it is not part of the key.
+     */
+    private static String getKey(URI uri) {
+        String key = uri.toString();
+        int fragment = key.indexOf('#');
+
+        return fragment < 0 ? key : key.substring(0, fragment);
+    }
+
+    private static JsonObject read(String key) {
+        Path path = getPath(key);
+
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try {
+            return JsonParser.parseString(Files.readString(path, StandardCharsets.UTF_8)).getAsJsonObject();
+        } catch (Exception e) {
+            logger.debug("Unable to read cached slide properties {}", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return file of the cached properties, within the QuPath user directory if one is set.
+     */
+    private static Path getPath(String key) {
+        Path userPath = UserDirectoryManager.getInstance().getUserPath();
+
+        if (userPath == null) {
+            userPath = Path.of(System.getProperty("user.home"), ".qupath-edu");
+        }
+
+        return userPath
+            .resolve("edu-slide-metadata")
+            .resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+}
@@ -0,0 +1,15 @@
+package qupath.edu.server;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a tile fetch for the viewers is skipped or aborted because the tile is no longer visible.
+ *
+ * @see VisibleRegions
+ */
+class StaleTileException extends InterruptedIOException {
+
+    StaleTileException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,383 @@
+package qupath.edu.server;
+
+import qupath.lib.images.servers.AbstractTileableImageServer;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Fetches tiles in aligned blocks of NxN tiles ("super-tiles") with a single request, and splits each block into the
+ * tiles of the slide. The other tiles of the block are put into the tile cache, so the viewer finds them there when
+ * it needs them.
+ * <p>
+ * The block size is chosen separately for every resolution level from the measured time per tile of each size:
+ * on high latency networks larger blocks amortize the round trip, while on fast networks single tiles avoid fetching
+ * tiles which are never shown. Concurrent requests for tiles of the same block share one fetch.
+ */
+class SuperTiles {
+
+    private static final int[] BLOCK_SIZES = { 1, 2, 4 };
+
+    /**
+     * Largest width or height of a block in pixels.
+     */
+    private static final int MAX_BLOCK_PIXELS = 2048;
+
+    /**
+     * A larger block must be this much cheaper per tile to be preferred, as some of its tiles may never be shown.
+     */
+    private static final double LARGER_BLOCK_ADVANTAGE = 0.8;
+
+    /**
+     * Every nth block is fetched with a neighbouring size, so that its timing stays up to date.
+     */
+    private static final int EXPLORE_INTERVAL = 20;
+
+    private static final double TIMING_SMOOTHING = 0.2;
+
+    interface RegionFetcher {
+        /**
+         * Downloads the encoded region.
+         *
+         * @param x full resolution x-coordinate of the region.
+         * @param y full resolution y-coordinate of the region.
+         * @param width width of the region at the given level.
+         * @param height height of the region at the given level.
+         */
+        byte[] fetch(int x, int y, int level, int width, int height, int z, int t) throws IOException;
+
+        /**
+         * @return true if the region can be fetched without downloading it.
+         */
+        boolean isCached(int x, int y, int level, int width, int height, int z);
+    }
+
+    private record Block(int level, int column, int row, int size, int z, int t) {}
+
+    /**
+     * Region requested for a block: the origin in full resolution coordinates and the size at the level of the block.
+     */
+    private record Region(int x, int y, int width, int height) {}
+
+    private final AbstractTileableImageServer server;
+    private final Map<RegionRequest, BufferedImage> cache;
+    private final RegionFetcher fetcher;
+    private final BiConsumer<TileRequest, BufferedImage> listener;
+
+    private final Map<Block, CompletableFuture<Map<RegionRequest, BufferedImage>>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Smoothed nanoseconds per tile, by level and index of the block size.
+     */
+    private final Map<Integer, double[]> timings = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> fetchCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param cache tile cache of the server, shared with the viewer.
+     * @param listener notified of every tile read, including the other tiles of a block.
+     */
+    SuperTiles(AbstractTileableImageServer server, Map<RegionRequest, BufferedImage> cache, RegionFetcher fetcher, BiConsumer<TileRequest, BufferedImage> listener) {
+        this.server = server;
+        this.cache = cache;
+        this.fetcher = fetcher;
+        this.listener = listener;
+    }
+
+    /**
+     * @param aggregate if false, the tile is fetched on its own.
+     * @return the tile, or null if it could not be decoded.
+     */
+    BufferedImage read(TileRequest request, boolean aggregate) throws IOException {
+        if (fetcher.isCached(request.getImageX(), request.getImageY(), request.getLevel(), request.getTileWidth(), request.getTileHeight(), request.getZ())) {
+            return readSingle(request);
+        }
+
+        int size = aggregate && cache != null ? chooseBlockSize(request.getLevel()) : 1;
+        Block block = size == 1 ? null : getBlock(request, size);
+
+        // Prefer a block which was downloaded before, with any block size
+        for (int i = 1; i < BLOCK_SIZES.length && cache != null; i++) {
+            Block candidate = getBlock(request, BLOCK_SIZES[i]);
+            Region region = getRegion(candidate);
+
+            if (region != null && fetcher.isCached(region.x(), region.y(), candidate.level(), region.width(), region.height(), candidate.z())) {
+                block = candidate;
+                break;
+            }
+        }
+
+        if (block == null) {
+            return readSingle(request);
+        }
+        Map<RegionRequest, BufferedImage> tiles;
+
+        try {
+            tiles = readBlock(block);
+        } catch (IOException e) {
+            if (e.getCause() instanceof FileNotFoundException) {
+                // Missing tiles are handled per tile
+                return readSingle(request);
+            }
+
+            throw e;
+        }
+
+        BufferedImage img = tiles.get(request.getRegionRequest());
+
+        return img == null ? readSingle(request) : img;
+    }
+
+    private BufferedImage readSingle(TileRequest request) throws IOException {
+        long start = System.nanoTime();
+
+        BufferedImage img = TileDecoder.decode(fetcher.fetch(
+            request.getImageX(), request.getImageY(), request.getLevel(),
+            request.getTileWidth(), request.getTileHeight(), request.getZ(), request.getT()
+        ));
+
+        record(request.getLevel(), 0, System.nanoTime() - start, 1);
+
+        if (img != null) {
+            listener.accept(request, img);
+        }
+
+        return img;
+    }
+
+    private Map<RegionRequest, BufferedImage> readBlock(Block block) throws IOException {
+        CompletableFuture<Map<RegionRequest, BufferedImage>> future = new CompletableFuture<>();
+        CompletableFuture<Map<RegionRequest, BufferedImage>> existing = inFlight.putIfAbsent(block, future);
+
+        if (existing != null) {
+            try {
+                return join(existing);
+            } catch (StaleTileException e) {
+                // The block was fetched for a viewer which no longer needs it, but this thread may still need it
+                return readBlock(block);
+            }
+        }
+
+        // The block is removed before the future completes, so that a joiner retrying after a stale fetch does not
+        // find the same failed future again
+        try {
+            Map<RegionRequest, BufferedImage> tiles = fetchBlock(block);
+            inFlight.remove(block, future);
+            future.complete(tiles);
+
+            return tiles;
+        } catch (IOException | RuntimeException | Error e) {
+            inFlight.remove(block, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Map<RegionRequest, BufferedImage> fetchBlock(Block block) throws IOException {
+        int tileWidth = server.getMetadata().getPreferredTileWidth();
+        int tileHeight = server.getMetadata().getPreferredTileHeight();
+        Region region = getRegion(block);
+
+        if (region == null) {
+            throw new IOException("No tile at the origin of block " + block);
+        }
+
+        long start = System.nanoTime();
+        byte[] data = fetcher.fetch(region.x(), region.y(), block.level(), region.width(), region.height(), block.z(), block.t());
+
+        // The block is decoded into a recycled image, so the tiles must be copied out of it
+        Map<TileRequest, BufferedImage> slices = TileDecoder.decodeTemporary(data, img -> split(img, block, tileWidth, tileHeight));
+        long duration = System.nanoTime() - start;
+
+        Map<RegionRequest, BufferedImage> tiles = new HashMap<>();
+
+        slices.forEach((tile, slice) -> {
+            tiles.put(tile.getRegionRequest(), slice);
+            cache.put(tile.getRegionRequest(), slice);
+            listener.accept(tile, slice);
+        });
+
+        record(block.level(), indexOf(block.size()), duration, Math.max(1, tiles.size()));
+
+        return tiles;
+    }
+
+    private Map<TileRequest, BufferedImage> split(BufferedImage img, Block block, int tileWidth, int tileHeight) {
+        Map<TileRequest, BufferedImage> slices = new HashMap<>();
+
+        if (img == null) {
+            return slices;
+        }
+
+        for (int row = 0; row < block.size(); row++) {
+            for (int column = 0; column < block.size(); column++) {
+                TileRequest tile = getTileRequest(block, column, row, tileWidth, tileHeight);
+
+                int x = column * tileWidth;
+                int y = row * tileHeight;
+
+                if (tile == null || x + tile.getTileWidth() > img.getWidth() || y + tile.getTileHeight() > img.getHeight()) {
+                    continue;
+                }
+
+                slices.put(tile, copy(img, x, y, tile.getTileWidth(), tile.getTileHeight()));
+            }
+        }
+
+        return slices;
+    }
+
+    private Block getBlock(TileRequest request, int size) {
+        int tileWidth = server.getMetadata().getPreferredTileWidth();
+        int tileHeight = server.getMetadata().getPreferredTileHeight();
+        double downsample = request.getDownsample();
+
+        int column = (int) Math.round(request.getImageX() / downsample) / tileWidth;
+        int row = (int) Math.round(request.getImageY() / downsample) / tileHeight;
+
+        return new Block(request.getLevel(), column / size * size, row / size * size, size, request.getZ(), request.getT());
+    }
+
+    /**
+     * @return the region covered by the block, or null if the block is outside the slide.
+     */
+    private Region getRegion(Block block) {
+        int tileWidth = server.getMetadata().getPreferredTileWidth();
+        int tileHeight = server.getMetadata().getPreferredTileHeight();
+        var level = server.getMetadata().getLevel(block.level());
+
+        TileRequest first = getTileRequest(block, 0, 0, tileWidth, tileHeight);
+
+        if (first == null) {
+            return null;
+        }
+
+        int blockX = block.column() * tileWidth;
+        int blockY = block.row() * tileHeight;
+
+        return new Region(
+            first.getImageX(),
+            first.getImageY(),
+            Math.min(block.size() * tileWidth, level.getWidth() - blockX),
+            Math.min(block.size() * tileHeight, level.getHeight() - blockY)
+        );
+    }
+
+    /**
+     * @return the tile at the given offset within the block, or null if the block extends past the slide.
+     */
+    private TileRequest getTileRequest(Block block, int column, int row, int tileWidth, int tileHeight) {
+        double downsample = server.getDownsampleForResolution(block.level());
+
+        int x = (int) (((block.column() + column) * tileWidth + tileWidth / 2.0) * downsample);
+        int y = (int) (((block.row() + row) * tileHeight + tileHeight / 2.0) * downsample);
+
+        if (x >= server.getWidth() || y >= server.getHeight()) {
+            return null;
+        }
+
+        TileRequest tile = server.getTileRequestManager().getTileRequest(block.level(), x, y, block.z(), block.t());
+
+        return tile != null && tile.getLevel() == block.level() ? tile : null;
+    }
+
+    /**
+     * Copies the region into a new image, so that cached tiles do not keep the whole block in memory.
+     */
+    private static BufferedImage copy(BufferedImage img, int x, int y, int width, int height) {
+        BufferedImage tile = new BufferedImage(
+            img.getColorModel(),
+            img.getRaster().createCompatibleWritableRaster(width, height),
+            img.isAlphaPremultiplied(),
+            null
+        );
+
+        tile.setData(img.getRaster().createChild(x, y, width, height, 0, 0, null));
+
+        return tile;
+    }
+
+    private int chooseBlockSize(int level) {
+        int tileSize = Math.max(server.getMetadata().getPreferredTileWidth(), server.getMetadata().getPreferredTileHeight());
+        double[] levelTimings = timings.computeIfAbsent(level, l -> newTimings());
+        int count = fetchCounts.merge(level, 1, Integer::sum);
+
+        int best = 0;
+
+        synchronized (levelTimings) {
+            for (int i = 0; i < BLOCK_SIZES.length && BLOCK_SIZES[i] * tileSize <= MAX_BLOCK_PIXELS; i++) {
+                // Try every size once before comparing
+                if (Double.isNaN(levelTimings[i])) {
+                    return BLOCK_SIZES[i];
+                }
+
+                if (levelTimings[i] < levelTimings[best] * LARGER_BLOCK_ADVANTAGE) {
+                    best = i;
+                }
+            }
+        }
+
+        if (count % EXPLORE_INTERVAL == 0) {
+            int neighbour = best + (count / EXPLORE_INTERVAL % 2 == 0 ? 1 : -1);
+
+            if (neighbour >= 0 && neighbour < BLOCK_SIZES.length && BLOCK_SIZES[neighbour] * tileSize <= MAX_BLOCK_PIXELS) {
+                return BLOCK_SIZES[neighbour];
+            }
+        }
+
+        return BLOCK_SIZES[best];
+    }
+
+    private void record(int level, int sizeIndex, long duration, int tileCount) {
+        double[] levelTimings = timings.computeIfAbsent(level, l -> newTimings());
+        double perTile = (double) duration / tileCount;
+
+        synchronized (levelTimings) {
+            levelTimings[sizeIndex] = Double.isNaN(levelTimings[sizeIndex])
+                ? perTile
+                : levelTimings[sizeIndex] + TIMING_SMOOTHING * (perTile - levelTimings[sizeIndex]);
+        }
+    }
+
+    private static double[] newTimings() {
+        double[] levelTimings = new double[BLOCK_SIZES.length];
+        Arrays.fill(levelTimings, Double.NaN);
+
+        return levelTimings;
+    }
+
+    private static int indexOf(int size) {
+        for (int i = 0; i < BLOCK_SIZES.length; i++) {
+            if (BLOCK_SIZES[i] == size) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("Invalid block size " + size);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for tile");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+}
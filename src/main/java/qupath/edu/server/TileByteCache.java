@@ -0,0 +1,248 @@
+package qupath.edu.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Second level cache holding the encoded bytes of remote tiles, which are usually 10-20x smaller than the decoded
+ * tiles in QuPath's tile cache. When QuPath evicts a tile, it is decoded again from these bytes instead of being
+ * downloaded again.
+ * <p>
+ * The bytes are stored off-heap in one direct buffer divided into fixed size pages, so the cache neither grows the
+ * heap nor creates garbage. Least recently used tiles are evicted when no pages are free. The size is set with
+ * {@link EduOptions#tileByteCacheSize()}; changing it clears the cache.
+ * <p>
+ * Entries may belong to a group, e.g. the same tile at every z-plane of a z-stack. A group is used and evicted as one
+ * unit, so that focusing through a slide does not find some planes of a tile evicted.
+ */
+class TileByteCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(TileByteCache.class);
+
+    private static final int PAGE_SIZE = 16 * 1024;
+
+    private static final TileByteCache instance = new TileByteCache();
+
+    private record Entry(int[] pages, int length, String group) {}
+
+    /**
+     * Entries in access order, so that the least recently used entries are evicted first.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final Map<String, Set<String>> groups = new HashMap<>();
+
+    private ByteBuffer arena;
+    private int[] freePages;
+    private int freePageCount;
+
+    /**
+     * Set when the buffer could not be allocated, disabling the cache until its size is changed.
+     */
+    private boolean allocationFailed = false;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private TileByteCache() {
+        EduOptions.tileByteCacheSize().addListener((obs, oldValue, newValue) -> reset());
+    }
+
+    static TileByteCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return a copy of the cached bytes, or null if the key is not cached.
+     */
+    synchronized byte[] get(String key) {
+        Entry entry = entries.get(key);
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+
+        touch(entry.group());
+
+        byte[] data = new byte[entry.length()];
+
+        for (int i = 0; i < entry.pages().length; i++) {
+            int offset = i * PAGE_SIZE;
+            arena.get(entry.pages()[i] * PAGE_SIZE, data, offset, Math.min(PAGE_SIZE, data.length - offset));
+        }
+
+        return data;
+    }
+
+    synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    synchronized void put(String key, byte[] data) {
+        put(key, null, data);
+    }
+
+    /**
+     * @param group key of the group of the entry, or null if the entry does not belong to a group.
+     */
+    synchronized void put(String key, String group, byte[] data) {
+        if (!ensureArena()) {
+            return;
+        }
+
+        int pageCount = (data.length + PAGE_SIZE - 1) / PAGE_SIZE;
+
+        // Very large regions would evict most of the cache
+        if (pageCount == 0 || pageCount > freePages.length / 16) {
+            return;
+        }
+
+        remove(key);
+
+        while (freePageCount < pageCount && !entries.isEmpty()) {
+            evict(entries.keySet().iterator().next());
+        }
+
+        int[] pages = new int[pageCount];
+
+        for (int i = 0; i < pageCount; i++) {
+            pages[i] = freePages[--freePageCount];
+
+            int offset = i * PAGE_SIZE;
+            arena.put(pages[i] * PAGE_SIZE, data, offset, Math.min(PAGE_SIZE, data.length - offset));
+        }
+
+        entries.put(key, new Entry(pages, data.length, group));
+
+        if (group != null) {
+            groups.computeIfAbsent(group, g -> new HashSet<>()).add(key);
+            touch(group);
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        groups.clear();
+
+        if (freePages != null) {
+            for (int i = 0; i < freePages.length; i++) {
+                freePages[i] = i;
+            }
+
+            freePageCount = freePages.length;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long usedPages = freePages == null ? 0 : freePages.length - freePageCount;
+
+        return String.format("TileByteCache [tiles: %d, used: %d MB, hits: %d, misses: %d]",
+                entries.size(), usedPages * PAGE_SIZE / (1024 * 1024), hits, misses);
+    }
+
+    private synchronized void reset() {
+        logger.debug("Tile byte cache resized, clearing {}", this);
+
+        entries.clear();
+        groups.clear();
+        arena = null;
+        freePages = null;
+        freePageCount = 0;
+        allocationFailed = false;
+    }
+
+    /**
+     * Allocates the buffer on first use.
+     *
+     * @return false if the cache is disabled.
+     */
+    private boolean ensureArena() {
+        if (arena != null) {
+            return true;
+        }
+
+        if (allocationFailed) {
+            return false;
+        }
+
+        long bytes = Math.min(Integer.MAX_VALUE, Math.max(0, EduOptions.tileByteCacheSize().get()) * 1024L * 1024L);
+        int pageCount = (int) (bytes / PAGE_SIZE);
+
+        if (pageCount == 0) {
+            return false;
+        }
+
+        try {
+            arena = ByteBuffer.allocateDirect(pageCount * PAGE_SIZE);
+        } catch (OutOfMemoryError e) {
+            logger.warn("Unable to allocate {} MB for the tile byte cache, disabling it for this session", bytes / (1024 * 1024), e);
+            allocationFailed = true;
+            return false;
+        }
+
+        freePages = new int[pageCount];
+        clear();
+
+        return true;
+    }
+
+    private void remove(String key) {
+        Entry previous = entries.remove(key);
+
+        if (previous != null) {
+            release(previous);
+
+            if (previous.group() != null) {
+                Set<String> members = groups.get(previous.group());
+                members.remove(key);
+
+                if (members.isEmpty()) {
+                    groups.remove(previous.group());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entry, and every other entry of its group.
+     */
+    private void evict(String key) {
+        Entry entry = entries.get(key);
+
+        if (entry == null || entry.group() == null) {
+            remove(key);
+            return;
+        }
+
+        for (String member : List.copyOf(groups.get(entry.group()))) {
+            remove(member);
+        }
+    }
+
+    /**
+     * Marks every entry of the group as recently used.
+     */
+    private void touch(String group) {
+        if (group == null) {
+            return;
+        }
+
+        for (String member : groups.get(group)) {
+            entries.get(member);
+        }
+    }
+
+    private void release(Entry entry) {
+        for (int page : entry.pages()) {
+            freePages[freePageCount++] = page;
+        }
+    }
+}
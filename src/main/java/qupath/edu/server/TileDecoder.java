@@ -0,0 +1,174 @@
+package qupath.edu.server;
+
+import qupath.lib.common.ThreadTools;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Decodes tiles on a dedicated pool of threads, separately from the threads downloading them, so that a slow
+ * download never holds up decoding and decoding never holds a connection.
+ * <p>
+ * Every decode thread keeps its own JPEG and PNG {@link ImageReader}s instead of looking one up for every tile.
+ * Images which are only needed temporarily, e.g. blocks of tiles which are split into tiles, are decoded into
+ * recycled images.
+ */
+class TileDecoder {
+
+    private static final int MAX_POOLED_IMAGES_PER_TYPE = 4;
+
+    private static final byte[] JPEG_SIGNATURE = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF };
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()),
+        ThreadTools.createThreadFactory("edu-tile-decode-", true)
+    );
+
+    private static final ThreadLocal<Map<String, ImageReader>> readers = ThreadLocal.withInitial(HashMap::new);
+
+    private record PoolKey(int width, int height, ImageTypeSpecifier type) {}
+
+    /**
+     * @param key pool of the image, or null if the image is not recycled.
+     */
+    private record Decoded(BufferedImage image, PoolKey key) {}
+
+    private static final Map<PoolKey, Queue<BufferedImage>> pool = new ConcurrentHashMap<>();
+
+    private TileDecoder() {}
+
+    /**
+     * @return the decoded image, or null if the data could not be decoded.
+     */
+    static BufferedImage decode(byte[] data) throws IOException {
+        return await(executor.submit(() -> read(data, false).image()));
+    }
+
+    /**
+     * Decodes into a recycled image which is only valid while <code>function</code> is applied; the image must not
+     * be used after that.
+     *
+     * @param function receives the decoded image, or null if the data could not be decoded.
+     */
+    static <T> T decodeTemporary(byte[] data, Function<BufferedImage, T> function) throws IOException {
+        return await(executor.submit(() -> {
+            Decoded decoded = read(data, true);
+
+            try {
+                return function.apply(decoded.image());
+            } finally {
+                recycle(decoded);
+            }
+        }));
+    }
+
+    private static Decoded read(byte[] data, boolean pooled) throws IOException {
+        ImageReader reader = getReader(data);
+
+        if (reader == null) {
+            return new Decoded(ImageIO.read(new ByteArrayInputStream(data)), null);
+        }
+
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+            reader.setInput(input, true, true);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            PoolKey key = null;
+
+            if (pooled) {
+                Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+
+                if (types.hasNext()) {
+                    key = new PoolKey(reader.getWidth(0), reader.getHeight(0), types.next());
+
+                    Queue<BufferedImage> images = pool.get(key);
+                    BufferedImage destination = images == null ? null : images.poll();
+
+                    param.setDestination(destination != null ? destination : key.type().createBufferedImage(key.width(), key.height()));
+                }
+            }
+
+            return new Decoded(reader.read(0, param), key);
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    private static void recycle(Decoded decoded) {
+        if (decoded.image() == null || decoded.key() == null) {
+            return;
+        }
+
+        Queue<BufferedImage> images = pool.computeIfAbsent(decoded.key(), key -> new ConcurrentLinkedQueue<>());
+
+        if (images.size() < MAX_POOLED_IMAGES_PER_TYPE) {
+            images.offer(decoded.image());
+        }
+    }
+
+    /**
+     * @return reader of the decode thread for the format of the data, or null if the format is not JPEG or PNG.
+     */
+    private static ImageReader getReader(byte[] data) {
+        String format;
+
+        if (startsWith(data, JPEG_SIGNATURE)) {
+            format = "jpeg";
+        } else if (startsWith(data, PNG_SIGNATURE)) {
+            format = "png";
+        } else {
+            return null;
+        }
+
+        return readers.get().computeIfAbsent(format, name -> {
+            Iterator<ImageReader> iterator = ImageIO.getImageReadersByFormatName(name);
+
+            return iterator.hasNext() ? iterator.next() : null;
+        });
+    }
+
+    private static boolean startsWith(byte[] data, byte[] signature) {
+        if (data.length < signature.length) {
+            return false;
+        }
+
+        for (int i = 0; i < signature.length; i++) {
+            if (data[i] != signature[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding tile");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+
+            throw new IOException("Error when decoding tile", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package qupath.edu.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adaptive limit for the number of tiles fetched at once from one tile server.
+ * <p>
+ * The limit follows additive increase, multiplicative decrease (AIMD): every tile fetched without congestion raises
+ * the limit by roughly one per round trip, while a failed fetch halves it and a fetch with latency well above the
+ * baseline lowers it slightly. The baseline is the lowest latency recently seen for requests of a similar size, as a
+ * block of tiles takes longer than a single tile; it creeps upwards slowly, so that the limiter adapts when the
+ * network changes. Latency is that of the network exchange only, without waiting for other requests. At most one
+ * decrease happens per average round trip, so a burst of slow responses to requests sent at once only counts once.
+ */
+public class TileFetchLimiter {
+
+    private final static Logger logger = LoggerFactory.getLogger(TileFetchLimiter.class);
+
+    private static final int INITIAL_LIMIT = 8;
+    private static final int MIN_LIMIT = 1;
+    private static final int MAX_LIMIT = 64;
+
+    private static final double FAILURE_BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.9;
+
+    /**
+     * Latency above this multiple of the baseline is considered congestion.
+     */
+    private static final double CONGESTION_THRESHOLD = 2.0;
+
+    private static final double BASELINE_DRIFT = 1.01;
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    private static final Map<String, TileFetchLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final String server;
+
+    private double limit = INITIAL_LIMIT;
+    private int inFlight = 0;
+    private int waiting = 0;
+
+    /**
+     * Lowest recent latency by size class of the requests, see {@link #getSizeClass(int)}.
+     */
+    private final Map<Integer, Double> baselineLatencies = new HashMap<>();
+    private double averageLatency = Double.NaN;
+    private long lastDecrease = System.nanoTime();
+
+    private TileFetchLimiter(String server) {
+        this.server = server;
+    }
+
+    /**
+     * @param server tile server URI, i.e. the <code>openslide.remoteserver.uri</code> property of a slide.
+     */
+    public static TileFetchLimiter forServer(String server) {
+        return limiters.computeIfAbsent(server, TileFetchLimiter::new);
+    }
+
+    public static Collection<TileFetchLimiter> getLimiters() {
+        return Collections.unmodifiableCollection(limiters.values());
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * @return the number of tiles which may currently be fetched at once.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of tile requests waiting for a free slot.
+     */
+    public synchronized int getQueueDepth() {
+        return waiting;
+    }
+
+    /**
+     * @return smoothed latency of recent fetches in milliseconds, or NaN if nothing has been fetched yet.
+     */
+    public synchronized double getAverageLatencyMillis() {
+        return averageLatency / 1e6;
+    }
+
+    /**
+     * Waits until a tile may be fetched. Every call must be followed by {@link #release(long, boolean)} or
+     * {@link #cancel()}.
+     */
+    synchronized void acquire() throws InterruptedException {
+        waiting++;
+
+        try {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+        } finally {
+            waiting--;
+        }
+
+        inFlight++;
+    }
+
+    /**
+     * @param latency nanoseconds taken by the network exchange of the fetch.
+     * @param pixels number of pixels requested, i.e. width times height of the region.
+     * @param success false if the fetch failed because of the network or the server, e.g. a timeout or a server error.
+     */
+    synchronized void release(long latency, int pixels, boolean success) {
+        inFlight--;
+
+        int previousLimit = (int) limit;
+        long now = System.nanoTime();
+
+        if (!success) {
+            decrease(FAILURE_BACKOFF, now);
+        } else {
+            double baselineLatency = Math.min(latency, baselineLatencies.getOrDefault(getSizeClass(pixels), Double.POSITIVE_INFINITY) * BASELINE_DRIFT);
+            baselineLatencies.put(getSizeClass(pixels), baselineLatency);
+            averageLatency = Double.isNaN(averageLatency) ? latency : averageLatency + LATENCY_SMOOTHING * (latency - averageLatency);
+
+            if (latency > baselineLatency * CONGESTION_THRESHOLD) {
+                decrease(LATENCY_BACKOFF, now);
+            } else if (inFlight + 1 >= (int) limit) {
+                // Only grow when the limit is actually being used
+                limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+            }
+        }
+
+        if ((int) limit != previousLimit) {
+            logger.debug("Tile fetch limit for {} is now {} ({} waiting, {} ms average latency)",
+                    server, (int) limit, waiting, String.format("%.0f", getAverageLatencyMillis()));
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Frees the slot of a fetch which was skipped or aborted. The limit is not adjusted, as the fetch says nothing
+     * about the server.
+     */
+    synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * @return the size class of a request, requests within a factor of two of each other sharing a class.
+     */
+    private static int getSizeClass(int pixels) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, pixels));
+    }
+
+    private void decrease(double factor, long now) {
+        if (!Double.isNaN(averageLatency) && now - lastDecrease < averageLatency) {
+            return;
+        }
+
+        limit = Math.max(MIN_LIMIT, limit * factor);
+        lastDecrease = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s [limit: %d, in flight: %d, queued: %d, latency: %.0f ms]",
+                server, (int) limit, inFlight, waiting, getAverageLatencyMillis());
+    }
+}
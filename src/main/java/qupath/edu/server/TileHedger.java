@@ -0,0 +1,303 @@
+package qupath.edu.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+import qupath.lib.common.ThreadTools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Hedges tile requests to cut tail latency: if a tile has not arrived within the 95th percentile of recent latencies
+ * of the tile server, a duplicate request is sent, to a mirror if there is one, and whichever response arrives first
+ * is used. The other request is then cancelled.
+ * <p>
+ * The first request runs on the calling thread, and only a hedge is handed to another thread. A hedge which wins
+ * interrupts the calling thread, so requests are only hedged on the tile fetch threads of the extension, see
+ * {@link ProgressiveTiles#isFetchThread()}.
+ * <p>
+ * Hedging is limited by a budget of extra requests, set as a percentage of all requests with
+ * {@link EduOptions#hedgedTileRequestBudget()}. Every request earns a fraction of a hedge and every hedge spends
+ * a whole one, so that hedging never adds more load than the budget allows, even when the server is slow overall.
+ */
+class TileHedger {
+
+    private final static Logger logger = LoggerFactory.getLogger(TileHedger.class);
+
+    private static final int LATENCY_WINDOW = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final double PERCENTILE = 0.95;
+    private static final long MIN_DELAY_NANOS = 50_000_000L;
+
+    /**
+     * Unused hedges saved up during quiet periods; limits bursts of hedges.
+     */
+    private static final double MAX_SAVED_HEDGES = 10;
+
+    private static final Map<String, TileHedger> hedgers = new ConcurrentHashMap<>();
+
+    /**
+     * Hedges run on their own threads, so that a losing hedge can be cancelled by interrupting its thread.
+     */
+    private static final ExecutorService executor = Executors.newCachedThreadPool(ThreadTools.createThreadFactory("edu-tile-hedge-", true));
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(ThreadTools.createThreadFactory("edu-tile-hedge-timer-", true));
+
+    interface Download {
+        /**
+         * @param hedge true if this download duplicates another download, e.g. so that it can use a mirror.
+         * @param exchange receives the nanoseconds taken by the network exchange.
+         */
+        byte[] download(boolean hedge, LongConsumer exchange) throws IOException, InterruptedException;
+    }
+
+    private final String server;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private int nextLatency = 0;
+
+    private double savedHedges = 0;
+
+    private long requests = 0;
+    private long hedges = 0;
+    private long hedgesWon = 0;
+
+    private TileHedger(String server) {
+        this.server = server;
+    }
+
+    /**
+     * @param server tile server URI, i.e. the <code>openslide.remoteserver.uri</code> property of a slide.
+     */
+    static TileHedger forServer(String server) {
+        return hedgers.computeIfAbsent(server, TileHedger::new);
+    }
+
+    /**
+     * Downloads the tile, hedging the download if it takes too long and the budget allows it.
+     *
+     * @param exchange receives the nanoseconds taken by the network exchange of the download which was used.
+     */
+    byte[] fetch(Download download, LongConsumer exchange) throws IOException, InterruptedException {
+        double budget = Math.max(0, EduOptions.hedgedTileRequestBudget().get()) / 100;
+        long delay = getHedgeDelay(budget);
+        AtomicLong latency = new AtomicLong(-1);
+
+        if (delay < 0 || !ProgressiveTiles.isFetchThread()) {
+            byte[] data = download.download(false, latency::set);
+            record(latency.get(), false, exchange);
+
+            return data;
+        }
+
+        Hedge hedge = new Hedge(download);
+        ScheduledFuture<?> timeout = timer.schedule(hedge::send, delay, TimeUnit.NANOSECONDS);
+
+        try {
+            byte[] data = download.download(false, latency::set);
+
+            if (hedge.settle(true)) {
+                record(latency.get(), false, exchange);
+
+                return data;
+            }
+        } catch (InterruptedException | InterruptedIOException e) {
+            // Interrupted by someone else than the hedge
+            if (hedge.settle(false)) {
+                hedge.cancel();
+                throw e;
+            }
+        } catch (IOException e) {
+            // Wait for the hedge, if any
+            if (hedge.settle(false) && !hedge.isSent()) {
+                throw e;
+            }
+        } finally {
+            timeout.cancel(false);
+        }
+
+        try {
+            byte[] data = hedge.await();
+            record(hedge.latency.get(), true, exchange);
+
+            return data;
+        } finally {
+            hedge.cancel();
+        }
+    }
+
+    public synchronized long getRequestCount() {
+        return requests;
+    }
+
+    public synchronized long getHedgeCount() {
+        return hedges;
+    }
+
+    /**
+     * @return the number of hedges which arrived before the original request.
+     */
+    public synchronized long getHedgesWon() {
+        return hedgesWon;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s [requests: %d, hedged: %d, hedges won: %d]", server, requests, hedges, hedgesWon);
+    }
+
+    /**
+     * Earns the budget of this request.
+     *
+     * @return nanoseconds to wait before hedging, or -1 if the request should not be hedged.
+     */
+    private synchronized long getHedgeDelay(double budget) {
+        requests++;
+
+        if (budget <= 0 || latencyCount < MIN_SAMPLES) {
+            return -1;
+        }
+
+        savedHedges = Math.min(MAX_SAVED_HEDGES, savedHedges + budget);
+
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+
+        return Math.max(MIN_DELAY_NANOS, sorted[(int) Math.min(latencyCount - 1, Math.floor(latencyCount * PERCENTILE))]);
+    }
+
+    private synchronized boolean spendHedge() {
+        if (savedHedges < 1) {
+            return false;
+        }
+
+        savedHedges--;
+        hedges++;
+
+        return true;
+    }
+
+    /**
+     * @param latency nanoseconds taken by the network exchange, without waiting for the network scheduler.
+     */
+    private synchronized void record(long latency, boolean hedgeWon, LongConsumer exchange) {
+        if (latency >= 0) {
+            latencies[nextLatency] = latency;
+            nextLatency = (nextLatency + 1) % LATENCY_WINDOW;
+            latencyCount = Math.min(LATENCY_WINDOW, latencyCount + 1);
+
+            exchange.accept(latency);
+        }
+
+        if (hedgeWon) {
+            hedgesWon++;
+
+            if (hedgesWon % 100 == 1) {
+                logger.debug("Hedged tile requests: {}", this);
+            }
+        }
+    }
+
+    /**
+     * Hedge of a request running on the calling thread. Whichever finishes first settles the race; a hedge which wins
+     * interrupts the calling thread, which then clears the interrupt when it settles.
+     */
+    private class Hedge {
+
+        private final Download download;
+        private final Thread caller = Thread.currentThread();
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        private final AtomicLong latency = new AtomicLong(-1);
+
+        private Future<?> future;
+        private boolean settled = false;
+        private boolean hedgeWon = false;
+
+        private Hedge(Download download) {
+            this.download = download;
+        }
+
+        /**
+         * Sends the hedge, unless the first request has already finished or the budget has run out.
+         */
+        synchronized void send() {
+            if (settled || !spendHedge()) {
+                return;
+            }
+
+            future = executor.submit(this::run);
+        }
+
+        synchronized boolean isSent() {
+            return future != null;
+        }
+
+        /**
+         * Called by the calling thread once the first request has finished.
+         *
+         * @param success true if the first request succeeded.
+         * @return false if the hedge has already won, in which case its result should be used.
+         */
+        synchronized boolean settle(boolean success) {
+            if (hedgeWon) {
+                Thread.interrupted();
+                return false;
+            }
+
+            settled = true;
+
+            if (success && future != null) {
+                future.cancel(true);
+            }
+
+            return true;
+        }
+
+        byte[] await() throws IOException, InterruptedException {
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException cause) {
+                    throw cause;
+                } else if (e.getCause() instanceof InterruptedException cause) {
+                    throw cause;
+                }
+
+                throw new IOException("Error when downloading tile", e.getCause());
+            }
+        }
+
+        synchronized void cancel() {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        private void run() {
+            try {
+                byte[] data = download.download(true, latency::set);
+
+                synchronized (this) {
+                    if (!settled) {
+                        settled = true;
+                        hedgeWon = true;
+                        caller.interrupt();
+                    }
+                }
+
+                result.complete(data);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package qupath.edu.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.edu.EduOptions;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Equivalent endpoints of a tile server, e.g. caching replicas in lecture hall buildings. Requests are routed to the
+ * fastest healthy endpoint and fail over to the others when an endpoint errors.
+ * <p>
+ * Endpoints are render region URI templates, see {@link qupath.edu.api.EduAPI#getRenderRegionURL}. Besides the tile
+ * server of the slide, they are advertised by the server with the <code>openslide.remoteserver.mirrors</code> slide
+ * property, and configured locally with {@link EduOptions#tileServerMirrors()} as base URLs which replace the scheme
+ * and host of the tile server.
+ * <p>
+ * The latency of every endpoint is measured from the requests routed to it. Every {@link #EXPLORE_INTERVAL}th
+ * request goes to the endpoint measured longest ago, so that the measurements stay current. An endpoint which
+ * errors is skipped for a backoff period, which doubles with every consecutive error.
+ */
+class TileServerMirrors {
+
+    private final static Logger logger = LoggerFactory.getLogger(TileServerMirrors.class);
+
+    private static final int EXPLORE_INTERVAL = 32;
+
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private static final long MIN_BACKOFF_NANOS = 1_000_000_000L;
+    private static final long MAX_BACKOFF_NANOS = 60_000_000_000L;
+
+    private static final Map<String, TileServerMirrors> mirrors = new ConcurrentHashMap<>();
+
+    static final class Endpoint {
+
+        private final String template;
+
+        private double latency = Double.NaN;
+        private long lastMeasured = Long.MIN_VALUE;
+        private int failures = 0;
+        private long unhealthyUntil = 0;
+
+        private Endpoint(String template) {
+            this.template = template;
+        }
+
+        /**
+         * @return render region URI template of the endpoint.
+         */
+        String template() {
+            return template;
+        }
+
+        private boolean isHealthy(long now) {
+            return failures == 0 || now - unhealthyUntil >= 0;
+        }
+    }
+
+    private final String server;
+
+    private List<String> advertised = List.of();
+    private String localConfiguration;
+    private List<Endpoint> endpoints = List.of();
+
+    private long requests = 0;
+
+    private TileServerMirrors(String server) {
+        this.server = server;
+    }
+
+    /**
+     * @param server tile server URI, i.e. the <code>openslide.remoteserver.uri</code> property of a slide.
+     * @param advertised mirrors advertised by the server for the tile server.
+     */
+    static TileServerMirrors forServer(String server, Collection<String> advertised) {
+        TileServerMirrors instance = mirrors.computeIfAbsent(server, TileServerMirrors::new);
+        instance.setAdvertised(advertised);
+
+        return instance;
+    }
+
+    /**
+     * @param hedge true if the request duplicates another request, in which case the second best endpoint is
+     *              preferred so that the duplicate does not wait behind the original request.
+     * @return every endpoint in the order they should be tried; healthy endpoints first, fastest first.
+     */
+    synchronized List<Endpoint> getEndpoints(boolean hedge) {
+        update();
+
+        long now = System.nanoTime();
+
+        List<Endpoint> ordered = new ArrayList<>(endpoints);
+        ordered.sort(Comparator
+            .comparing((Endpoint endpoint) -> !endpoint.isHealthy(now))
+            .thenComparingLong(endpoint -> endpoint.isHealthy(now) ? 0 : endpoint.unhealthyUntil - now)
+            .thenComparingDouble(endpoint -> Double.isNaN(endpoint.latency) ? 0 : endpoint.latency));
+
+        if (ordered.size() > 1 && !hedge && ++requests % EXPLORE_INTERVAL == 0) {
+            ordered.stream()
+                .filter(endpoint -> endpoint.isHealthy(now))
+                .min(Comparator.comparingLong(endpoint -> endpoint.lastMeasured))
+                .ifPresent(endpoint -> {
+                    ordered.remove(endpoint);
+                    ordered.add(0, endpoint);
+                });
+        }
+
+        if (hedge && ordered.size() > 1 && ordered.get(1).isHealthy(now)) {
+            Collections.swap(ordered, 0, 1);
+        }
+
+        return ordered;
+    }
+
+    /**
+     * @param latency nanoseconds taken by the request.
+     * @param success false if the endpoint failed, e.g. a timeout or a server error.
+     */
+    synchronized void report(Endpoint endpoint, long latency, boolean success) {
+        long now = System.nanoTime();
+
+        if (success) {
+            if (endpoint.failures > 0) {
+                logger.info("Tile server {} is healthy again", endpoint.template);
+            }
+
+            endpoint.latency = Double.isNaN(endpoint.latency) ? latency : endpoint.latency + LATENCY_SMOOTHING * (latency - endpoint.latency);
+            endpoint.lastMeasured = now;
+            endpoint.failures = 0;
+            endpoint.unhealthyUntil = 0;
+        } else {
+            endpoint.failures++;
+            endpoint.unhealthyUntil = now + Math.min(MAX_BACKOFF_NANOS, MIN_BACKOFF_NANOS << Math.min(16, endpoint.failures - 1));
+
+            if (endpoint.failures == 1 && endpoints.size() > 1) {
+                logger.warn("Tile server {} failed, failing over to other tile servers", endpoint.template);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder(server).append(" [");
+
+        for (Endpoint endpoint : endpoints) {
+            builder.append(String.format("%s: %.0f ms, %d failures; ", endpoint.template, endpoint.latency / 1e6, endpoint.failures));
+        }
+
+        return builder.append("]").toString();
+    }
+
+    private synchronized void setAdvertised(Collection<String> advertised) {
+        if (!advertised.isEmpty()) {
+            this.advertised = List.copyOf(advertised);
+            this.localConfiguration = null;
+        }
+    }
+
+    /**
+     * Rebuilds the endpoints if the locally configured mirrors have changed. Measurements are kept.
+     */
+    private void update() {
+        String configuration = EduOptions.tileServerMirrors().get();
+
+        if (endpoints.size() > 0 && Objects.equals(configuration, localConfiguration)) {
+            return;
+        }
+
+        Set<String> templates = new LinkedHashSet<>();
+        templates.add(server);
+        templates.addAll(advertised);
+
+        if (configuration != null) {
+            for (String base : configuration.split("[,\\s]+")) {
+                if (!base.isBlank()) {
+                    templates.add(withBase(server, base.strip()));
+                }
+            }
+        }
+
+        Map<String, Endpoint> previous = new HashMap<>();
+        endpoints.forEach(endpoint -> previous.put(endpoint.template, endpoint));
+
+        endpoints = templates.stream()
+            .map(template -> previous.getOrDefault(template, new Endpoint(template)))
+            .toList();
+
+        localConfiguration = configuration;
+    }
+
+    /**
+     * Replaces the scheme and host of the template with the base URL. Templates contain placeholders, so they are
+     * not parsed as URIs.
+     */
+    private static String withBase(String template, String base) {
+        int authority = template.indexOf("://");
+        int path = authority < 0 ? -1 : template.indexOf('/', authority + 3);
+
+        if (base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+
+        return path < 0 ? base : base + template.substring(path);
+    }
+}
@@ -0,0 +1,332 @@
+package qupath.edu.server;
+
+import javafx.application.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.gui.viewer.QuPathViewer;
+import qupath.lib.gui.viewer.QuPathViewerListener;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.objects.PathObject;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tracks the regions shown in the viewers, so that tile fetches made for the viewers can be aborted once the tiles
+ * are no longer needed, e.g. when a student zooms quickly through levels or skips frames of a slide tour.
+ * <p>
+ * A fetch is stale when no viewer showing the slide shows its region, including a prefetch margin around the
+ * visible region, at a resolution the viewer could use. Stale fetches are skipped before they start and aborted
+ * while downloading. Only fetches on the threads of the extension are aborted, by interrupting them; fetches on the
+ * viewer's own threads belong to QuPath and are left to finish. Fetches made for anything else than the viewers, e.g.
+ * exporting a lesson, are never aborted, and neither are fetches for slides which no tracked viewer shows.
+ */
+public class VisibleRegions {
+
+    private final static Logger logger = LoggerFactory.getLogger(VisibleRegions.class);
+
+    /**
+     * Margin around the visible region, as a fraction of the size of the visible region.
+     */
+    private static final double PREFETCH_MARGIN = 0.5;
+
+    /**
+     * Tiles with a downsample this much lower than the viewer's are finer than the viewer can show.
+     */
+    private static final double MAX_DOWNSAMPLE_RATIO = 2.0;
+
+    private static final double BYTES_SMOOTHING = 0.05;
+
+    private record View(ImageServer<?> server, Rectangle2D region, double downsample, int z, int t) {}
+
+    /**
+     * Fetch currently downloading on <code>thread</code>. The thread is interrupted when the fetch is cancelled, which
+     * only happens if the extension owns the thread.
+     */
+    static final class Fetch {
+
+        private final ImageServer<?> server;
+        private final Rectangle2D region;
+        private final double downsample;
+        private final int z;
+        private final int t;
+        private final Thread thread;
+        private final boolean interruptible;
+
+        private boolean cancelled = false;
+
+        private Fetch(ImageServer<?> server, Rectangle2D region, double downsample, int z, int t) {
+            this.server = server;
+            this.region = region;
+            this.downsample = downsample;
+            this.z = z;
+            this.t = t;
+            this.thread = Thread.currentThread();
+            this.interruptible = ProgressiveTiles.isFetchThread();
+        }
+
+        boolean isCancelled() {
+            synchronized (fetches) {
+                return cancelled;
+            }
+        }
+    }
+
+    private static final List<QuPathViewer> viewers = new CopyOnWriteArrayList<>();
+
+    private static volatile List<View> views = List.of();
+
+    private static volatile long lastChange = System.nanoTime();
+
+    private static final Set<Fetch> fetches = new HashSet<>();
+
+    private static long skipped = 0;
+    private static long aborted = 0;
+    private static double averageBytes = Double.NaN;
+
+    private static final QuPathViewerListener listener = new QuPathViewerListener() {
+        @Override
+        public void imageDataChanged(QuPathViewer viewer, ImageData<BufferedImage> imageDataOld, ImageData<BufferedImage> imageDataNew) {
+            update();
+        }
+
+        @Override
+        public void visibleRegionChanged(QuPathViewer viewer, Shape shape) {
+            update();
+        }
+
+        @Override
+        public void selectedObjectChanged(QuPathViewer viewer, PathObject pathObjectSelected) {}
+
+        @Override
+        public void viewerClosed(QuPathViewer viewer) {
+            uninstall(viewer);
+        }
+    };
+
+    private VisibleRegions() {}
+
+    /**
+     * Starts tracking the region shown in the viewer.
+     */
+    public static void install(QuPathViewer viewer) {
+        if (viewers.contains(viewer)) {
+            return;
+        }
+
+        viewers.add(viewer);
+        viewer.addViewerListener(listener);
+
+        update();
+    }
+
+    /**
+     * Stops tracking the region shown in the viewer, e.g. because it was removed.
+     */
+    public static void uninstall(QuPathViewer viewer) {
+        viewer.removeViewerListener(listener);
+
+        if (viewers.remove(viewer)) {
+            update();
+        }
+    }
+
+    /**
+     * @return true if the current thread fetches tiles for the viewers, i.e. its fetches may be aborted.
+     */
+    static boolean isViewerRequest() {
+        return ProgressiveTiles.isViewerThread() || ProgressiveTiles.isFetchThread();
+    }
+
+    private static boolean isStale(ImageServer<?> server, Rectangle2D region, double downsample, int z, int t) {
+        boolean shown = false;
+
+        for (View view : views) {
+            if (view.server() != server) {
+                continue;
+            }
+
+            shown = true;
+
+            if (view.z() == z && view.t() == t
+                    && view.region().intersects(region)
+                    && downsample * MAX_DOWNSAMPLE_RATIO >= view.downsample()) {
+                return false;
+            }
+        }
+
+        return shown;
+    }
+
+    /**
+     * @return true if a viewer shows the region at any z-plane, or if no tracked viewer shows the slide.
+     */
+    static boolean isShownAtAnyDepth(ImageServer<?> server, int x, int y, int width, int height, double downsample, int t) {
+        Rectangle2D region = new Rectangle2D.Double(x, y, width * downsample, height * downsample);
+        boolean shown = false;
+
+        for (View view : views) {
+            if (view.server() != server) {
+                continue;
+            }
+
+            shown = true;
+
+            if (view.t() == t && view.region().intersects(region) && downsample * MAX_DOWNSAMPLE_RATIO >= view.downsample()) {
+                return true;
+            }
+        }
+
+        return !shown;
+    }
+
+    /**
+     * Waits until the regions shown in the viewers have not changed for the given time.
+     */
+    static void awaitSettled(long millis) throws InterruptedException {
+        long remaining;
+
+        while ((remaining = millis - (System.nanoTime() - lastChange) / 1_000_000) > 0) {
+            Thread.sleep(remaining);
+        }
+    }
+
+    /**
+     * Registers a fetch which is about to start downloading on the current thread. The fetch must be completed with
+     * {@link #complete(Fetch, int)} once the download has finished or failed.
+     *
+     * @param x full resolution x-coordinate of the region.
+     * @param y full resolution y-coordinate of the region.
+     * @param width width of the region at the given downsample.
+     * @param height height of the region at the given downsample.
+     * @return the fetch, or null if the fetch is already stale and should be skipped.
+     */
+    static Fetch start(ImageServer<?> server, int x, int y, int width, int height, double downsample, int z, int t) {
+        Rectangle2D region = new Rectangle2D.Double(x, y, width * downsample, height * downsample);
+
+        synchronized (fetches) {
+            if (isStale(server, region, downsample, z, t)) {
+                skipped++;
+                return null;
+            }
+
+            Fetch fetch = new Fetch(server, region, downsample, z, t);
+            fetches.add(fetch);
+
+            return fetch;
+        }
+    }
+
+    /**
+     * @param bytes size of the downloaded data, or a negative number if nothing was downloaded.
+     * @return true if the fetch was aborted. The interrupt caused by aborting is cleared.
+     */
+    static boolean complete(Fetch fetch, int bytes) {
+        synchronized (fetches) {
+            fetches.remove(fetch);
+
+            if (bytes >= 0 && !fetch.cancelled) {
+                averageBytes = Double.isNaN(averageBytes) ? bytes : averageBytes + BYTES_SMOOTHING * (bytes - averageBytes);
+            }
+        }
+
+        // No interrupts are sent to fetches which have been removed
+        if (fetch.cancelled) {
+            Thread.interrupted();
+        }
+
+        return fetch.cancelled;
+    }
+
+    /**
+     * @return the number of fetches skipped because they were already stale when they were about to start.
+     */
+    public static long getSkippedCount() {
+        synchronized (fetches) {
+            return skipped;
+        }
+    }
+
+    /**
+     * @return the number of fetches aborted while downloading.
+     */
+    public static long getAbortedCount() {
+        synchronized (fetches) {
+            return aborted;
+        }
+    }
+
+    /**
+     * @return estimate of the bytes not downloaded because of skipped and aborted fetches, based on the average
+     *         size of downloaded regions. Aborted fetches may have downloaded part of the data.
+     */
+    public static long getEstimatedBytesSaved() {
+        synchronized (fetches) {
+            return Double.isNaN(averageBytes) ? 0 : (long) ((skipped + aborted) * averageBytes);
+        }
+    }
+
+    /**
+     * Updates the visible regions from the viewers and aborts the fetches which became stale.
+     */
+    private static void update() {
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(VisibleRegions::update);
+            return;
+        }
+
+        List<View> list = new ArrayList<>();
+
+        for (QuPathViewer viewer : viewers) {
+            ImageServer<BufferedImage> server = viewer.getServer();
+            Shape shape = viewer.getDisplayedRegionShape();
+
+            if (server == null || shape == null) {
+                continue;
+            }
+
+            Rectangle2D bounds = shape.getBounds2D();
+            double marginX = bounds.getWidth() * PREFETCH_MARGIN;
+            double marginY = bounds.getHeight() * PREFETCH_MARGIN;
+
+            list.add(new View(
+                server,
+                new Rectangle2D.Double(bounds.getX() - marginX, bounds.getY() - marginY, bounds.getWidth() + 2 * marginX, bounds.getHeight() + 2 * marginY),
+                viewer.getDownsampleFactor(),
+                viewer.getZPosition(),
+                viewer.getTPosition()
+            ));
+        }
+
+        views = List.copyOf(list);
+        lastChange = System.nanoTime();
+
+        abortStaleFetches();
+    }
+
+    private static void abortStaleFetches() {
+        int count = 0;
+
+        synchronized (fetches) {
+            for (Fetch fetch : fetches) {
+                if (fetch.interruptible && !fetch.cancelled && isStale(fetch.server, fetch.region, fetch.downsample, fetch.z, fetch.t)) {
+                    fetch.cancelled = true;
+                    fetch.thread.interrupt();
+                    count++;
+                }
+            }
+
+            aborted += count;
+        }
+
+        if (count > 0) {
+            logger.debug("Aborted {} stale tile fetches [skipped: {}, aborted: {}, ~{} KB saved]",
+                    count, getSkippedCount(), getAbortedCount(), getEstimatedBytesSaved() / 1024);
+        }
+    }
+}
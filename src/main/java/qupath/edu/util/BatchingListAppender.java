@@ -0,0 +1,61 @@
+package qupath.edu.util;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Consumer which appends elements produced on a background thread to an {@link ObservableList} on the JavaFX
+ * Application Thread. Elements are added in batches, so that streaming thousands of elements does not flood the
+ * JavaFX event queue or re-sort a bound table after every element.
+ * <p>
+ * {@link #flush()} must be called after the last element to add any remaining elements.
+ */
+public class BatchingListAppender<T> implements Consumer<T> {
+
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final long MAX_BATCH_DELAY_NANOS = 100_000_000;
+
+    private final ObservableList<? super T> list;
+
+    private List<T> batch = new ArrayList<>();
+    private long batchStarted = System.nanoTime();
+
+    public BatchingListAppender(ObservableList<? super T> list) {
+        this.list = list;
+    }
+
+    @Override
+    public synchronized void accept(T element) {
+        if (batch.isEmpty()) {
+            batchStarted = System.nanoTime();
+        }
+
+        batch.add(element);
+
+        if (batch.size() >= MAX_BATCH_SIZE || System.nanoTime() - batchStarted >= MAX_BATCH_DELAY_NANOS) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds the pending elements to the list.
+     */
+    public synchronized void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<T> elements = batch;
+        batch = new ArrayList<>();
+
+        if (Platform.isFxApplicationThread()) {
+            list.addAll(elements);
+        } else {
+            Platform.runLater(() -> list.addAll(elements));
+        }
+    }
+}
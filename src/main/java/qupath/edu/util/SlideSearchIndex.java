@@ -0,0 +1,92 @@
+package qupath.edu.util;
+
+import qupath.edu.models.ExternalSlide;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Substring search over slide names, owners and IDs.
+ * <p>
+ * The searchable text of every slide is normalized once when the index is built, so a query is a single pass of
+ * {@link String#contains(CharSequence)} over precomputed strings. While typing, each query usually extends the
+ * previous one, in which case only the previous matches are searched again.
+ */
+public class SlideSearchIndex {
+
+    /**
+     * Punctuation ignored in both the slides and the query, e.g. to match IDs with or without dashes.
+     */
+    private static final Pattern IGNORED_CHARACTERS = Pattern.compile("[-+.^:,'\\s]");
+
+    private final List<ExternalSlide> slides;
+    private final String[] keys;
+
+    private String previousQuery = "";
+    private int[] previousMatches;
+
+    public SlideSearchIndex(Collection<ExternalSlide> slides) {
+        this.slides = List.copyOf(slides);
+        this.keys = new String[this.slides.size()];
+
+        for (int i = 0; i < keys.length; i++) {
+            ExternalSlide slide = this.slides.get(i);
+            String owner = slide.getOwner() == null ? "" : slide.getOwner().getName();
+
+            keys[i] = normalize(slide.getName() + "|" + owner + "|" + slide.getId());
+        }
+
+        this.previousMatches = allSlides();
+    }
+
+    /**
+     * @param query free text query; an empty query matches every slide.
+     * @return slides containing the query in their name, owner or ID, compared by identity.
+     */
+    public synchronized Set<ExternalSlide> search(String query) {
+        String normalized = normalize(query);
+        int[] candidates = normalized.contains(previousQuery) ? previousMatches : allSlides();
+
+        int[] matches = new int[candidates.length];
+        int count = 0;
+
+        for (int i : candidates) {
+            if (keys[i].contains(normalized)) {
+                matches[count++] = i;
+            }
+        }
+
+        previousQuery = normalized;
+        previousMatches = Arrays.copyOf(matches, count);
+
+        Set<ExternalSlide> result = Collections.newSetFromMap(new IdentityHashMap<>(count * 2));
+
+        for (int i = 0; i < count; i++) {
+            result.add(slides.get(matches[i]));
+        }
+
+        return result;
+    }
+
+    public int size() {
+        return slides.size();
+    }
+
+    private int[] allSlides() {
+        int[] all = new int[keys.length];
+
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+
+        return all;
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        return IGNORED_CHARACTERS.matcher(text.toLowerCase(Locale.ROOT)).replaceAll("");
+    }
+}
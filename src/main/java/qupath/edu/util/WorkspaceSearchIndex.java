@@ -0,0 +1,411 @@
+package qupath.edu.util;
+
+import qupath.edu.models.ExternalProject;
+import qupath.edu.models.ExternalSubject;
+import qupath.edu.models.ExternalWorkspace;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over workspace, course and lesson names and lesson descriptions.
+ * <p>
+ * Every token is indexed with all of its prefixes up to {@link #MAX_PREFIX_LENGTH} characters, so type-ahead queries
+ * are answered with a few hash lookups and bitset operations. Longer query tokens are looked up by their prefix and
+ * then verified against the tokens of each candidate. All queries are AND queries: every query token must match
+ * either the name or the description of a result.
+ * <p>
+ * The index is updated per workspace, so applying a change to a single workspace does not rebuild the whole index.
+ */
+public class WorkspaceSearchIndex {
+
+    private static final int MAX_PREFIX_LENGTH = 12;
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    private static final Comparator<String> NAME_COMPARATOR = new NaturalOrderComparator<>();
+
+    private static final int NAME_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+
+    /* Postings are stored as bitsets of document ids; document ids are reused after removal to keep them dense. */
+
+    private final Map<String, BitSet> nameIndex = new HashMap<>();
+    private final Map<String, BitSet> descriptionIndex = new HashMap<>();
+
+    private final List<Entry> documents = new ArrayList<>();
+    private final Deque<Integer> freeDocumentIds = new ArrayDeque<>();
+    private final Map<String, Integer> documentIds = new HashMap<>();
+
+    /**
+     * Position of each document when all documents are sorted by name. Used to order results with equal scores
+     * without comparing names during a query. Recomputed lazily after the index changes.
+     */
+    private int[] nameRanks = new int[0];
+    private int[] documentsByRank = new int[0];
+    private boolean nameRanksDirty = false;
+
+    /**
+     * Replaces the contents of the index with the given workspaces. Entries which did not change are kept as is.
+     */
+    public synchronized void update(Collection<ExternalWorkspace> workspaces) {
+        Set<String> workspaceIds = new HashSet<>();
+
+        for (ExternalWorkspace workspace : workspaces) {
+            workspaceIds.add(workspace.getId());
+            update(workspace);
+        }
+
+        removeIf(entry -> !workspaceIds.contains(entry.getWorkspace().getId()));
+
+        // Typically called from a background thread, so the first query after a full update does not pay for this.
+        updateNameRanks();
+    }
+
+    /**
+     * Indexes a single workspace with all of its courses and lessons and removes any of its courses or lessons
+     * which no longer exist.
+     */
+    public synchronized void update(ExternalWorkspace workspace) {
+        Set<String> ids = new HashSet<>();
+
+        put(new Entry(Type.WORKSPACE, workspace, null, null));
+        ids.add(workspace.getId());
+
+        for (ExternalSubject subject : workspace.getSubjects()) {
+            put(new Entry(Type.COURSE, workspace, subject, null));
+            ids.add(subject.getId());
+
+            for (ExternalProject project : subject.getProjects()) {
+                put(new Entry(Type.LESSON, workspace, subject, project));
+                ids.add(project.getId());
+            }
+        }
+
+        removeIf(entry -> entry.getWorkspace().getId().equals(workspace.getId()) && !ids.contains(entry.getId()));
+    }
+
+    /**
+     * Removes a workspace, course or lesson and everything it contains from the index.
+     */
+    public synchronized void remove(String id) {
+        removeIf(entry -> entry.getId().equals(id)
+                || entry.getWorkspace().getId().equals(id)
+                || (entry.getSubject() != null && entry.getSubject().getId().equals(id)));
+    }
+
+    public synchronized void clear() {
+        nameIndex.clear();
+        descriptionIndex.clear();
+        documents.clear();
+        freeDocumentIds.clear();
+        documentIds.clear();
+        nameRanksDirty = true;
+    }
+
+    public synchronized int size() {
+        return documentIds.size();
+    }
+
+    /**
+     * Finds all workspaces, courses and lessons matching every token of the query. Name matches are ranked before
+     * description matches; ties are ordered by type and then by name.
+     *
+     * @param query free text query.
+     * @param limit maximum number of results.
+     * @return matching entries, or an empty list if the query contains no tokens.
+     */
+    public synchronized List<Entry> search(String query, int limit) {
+        Set<String> terms = tokenize(query);
+
+        if (terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        BitSet matches = null;
+        List<BitSet> nameMatches = new ArrayList<>(terms.size());
+
+        for (String term : terms) {
+            BitSet name = lookup(nameIndex, term, true);
+            BitSet description = lookup(descriptionIndex, term, false);
+
+            BitSet termMatches = (BitSet) name.clone();
+            termMatches.or(description);
+
+            if (matches == null) {
+                matches = termMatches;
+            } else {
+                matches.and(termMatches);
+            }
+
+            if (matches.isEmpty()) {
+                return List.of();
+            }
+
+            nameMatches.add(name);
+        }
+
+        if (nameRanksDirty) {
+            updateNameRanks();
+        }
+
+        // Short prefixes can match most of the index, so the best results are selected with a bounded heap of sort
+        // keys instead of sorting every match. Smaller keys are better: inverted score, then type, then name.
+        int maxScore = terms.size() * NAME_WEIGHT;
+        PriorityQueue<Long> top = new PriorityQueue<>(limit + 1, Comparator.reverseOrder());
+
+        for (int document = matches.nextSetBit(0); document >= 0; document = matches.nextSetBit(document + 1)) {
+            int score = 0;
+
+            for (BitSet name : nameMatches) {
+                score += name.get(document) ? NAME_WEIGHT : DESCRIPTION_WEIGHT;
+            }
+
+            long key = ((long) (maxScore - score) << 40) | ((long) documents.get(document).getType().ordinal() << 32) | nameRanks[document];
+
+            if (top.size() < limit) {
+                top.add(key);
+            } else if (key < top.peek()) {
+                top.poll();
+                top.add(key);
+            }
+        }
+
+        long[] keys = top.stream().mapToLong(Long::longValue).sorted().toArray();
+        List<Entry> results = new ArrayList<>(keys.length);
+
+        for (long key : keys) {
+            results.add(documents.get(documentsByRank[(int) (key & 0xFFFFFFFFL)]));
+        }
+
+        return results;
+    }
+
+    private BitSet lookup(Map<String, BitSet> index, String term, boolean name) {
+        boolean truncated = term.length() > MAX_PREFIX_LENGTH;
+        BitSet candidates = index.get(truncated ? term.substring(0, MAX_PREFIX_LENGTH) : term);
+
+        if (candidates == null) {
+            return new BitSet();
+        }
+
+        if (!truncated) {
+            return candidates;
+        }
+
+        BitSet verified = new BitSet();
+
+        for (int document = candidates.nextSetBit(0); document >= 0; document = candidates.nextSetBit(document + 1)) {
+            Entry entry = documents.get(document);
+            Set<String> tokens = name ? entry.nameTokens : entry.descriptionTokens;
+
+            if (tokens.stream().anyMatch(token -> token.startsWith(term))) {
+                verified.set(document);
+            }
+        }
+
+        return verified;
+    }
+
+    private void put(Entry entry) {
+        Integer existingId = documentIds.get(entry.getId());
+
+        if (existingId != null) {
+            Entry existing = documents.get(existingId);
+
+            if (existing.nameTokens.equals(entry.nameTokens) && existing.descriptionTokens.equals(entry.descriptionTokens)) {
+                // Content is unchanged; only refresh the model references
+                documents.set(existingId, entry);
+                nameRanksDirty |= !existing.getName().equals(entry.getName());
+                return;
+            }
+
+            unindex(existingId);
+        }
+
+        int document;
+
+        if (freeDocumentIds.isEmpty()) {
+            document = documents.size();
+            documents.add(entry);
+        } else {
+            document = freeDocumentIds.pop();
+            documents.set(document, entry);
+        }
+
+        documentIds.put(entry.getId(), document);
+        addTokens(nameIndex, entry.nameTokens, document);
+        addTokens(descriptionIndex, entry.descriptionTokens, document);
+        nameRanksDirty = true;
+    }
+
+    private void removeIf(Predicate<Entry> predicate) {
+        List<Integer> removed = new ArrayList<>();
+
+        for (int document : documentIds.values()) {
+            if (predicate.test(documents.get(document))) {
+                removed.add(document);
+            }
+        }
+
+        removed.forEach(this::unindex);
+    }
+
+    private void unindex(int document) {
+        Entry entry = documents.get(document);
+
+        documentIds.remove(entry.getId());
+        removeTokens(nameIndex, entry.nameTokens, document);
+        removeTokens(descriptionIndex, entry.descriptionTokens, document);
+
+        documents.set(document, null);
+        freeDocumentIds.push(document);
+        nameRanksDirty = true;
+    }
+
+    private void updateNameRanks() {
+        Integer[] sorted = documentIds.values().toArray(Integer[]::new);
+        Arrays.sort(sorted, Comparator.comparing((Integer document) -> documents.get(document).getName(), NAME_COMPARATOR));
+
+        nameRanks = new int[documents.size()];
+        documentsByRank = new int[sorted.length];
+
+        for (int rank = 0; rank < sorted.length; rank++) {
+            nameRanks[sorted[rank]] = rank;
+            documentsByRank[rank] = sorted[rank];
+        }
+
+        nameRanksDirty = false;
+    }
+
+    private static void addTokens(Map<String, BitSet> index, Set<String> tokens, int document) {
+        for (String token : tokens) {
+            for (int i = 1; i <= Math.min(token.length(), MAX_PREFIX_LENGTH); i++) {
+                index.computeIfAbsent(token.substring(0, i), key -> new BitSet()).set(document);
+            }
+        }
+    }
+
+    private static void removeTokens(Map<String, BitSet> index, Set<String> tokens, int document) {
+        for (String token : tokens) {
+            for (int i = 1; i <= Math.min(token.length(), MAX_PREFIX_LENGTH); i++) {
+                String prefix = token.substring(0, i);
+                BitSet postings = index.get(prefix);
+
+                if (postings != null) {
+                    postings.clear(document);
+
+                    if (postings.isEmpty()) {
+                        index.remove(prefix);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+
+        if (text == null) {
+            return tokens;
+        }
+
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+
+        return tokens;
+    }
+
+    public enum Type {
+        WORKSPACE("Workspace"),
+        COURSE("Course"),
+        LESSON("Lesson");
+
+        private final String readable;
+
+        Type(String readable) {
+            this.readable = readable;
+        }
+
+        public String getReadable() {
+            return readable;
+        }
+    }
+
+    /**
+     * A single search result. Courses and lessons keep references to their parents for navigation.
+     */
+    public static class Entry {
+
+        private final Type type;
+        private final ExternalWorkspace workspace;
+        private final ExternalSubject subject;
+        private final ExternalProject project;
+
+        private final String name;
+        private final Set<String> nameTokens;
+        private final Set<String> descriptionTokens;
+
+        private Entry(Type type, ExternalWorkspace workspace, ExternalSubject subject, ExternalProject project) {
+            this.type = type;
+            this.workspace = workspace;
+            this.subject = subject;
+            this.project = project;
+
+            this.name = switch (type) {
+                case WORKSPACE -> workspace.getName();
+                case COURSE -> subject.getName();
+                case LESSON -> project.getName();
+            };
+
+            this.nameTokens = tokenize(name);
+            this.descriptionTokens = project == null ? Set.of() : tokenize(project.getDescription());
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public ExternalWorkspace getWorkspace() {
+            return workspace;
+        }
+
+        public ExternalSubject getSubject() {
+            return subject;
+        }
+
+        public ExternalProject getProject() {
+            return project;
+        }
+
+        public String getId() {
+            return switch (type) {
+                case WORKSPACE -> workspace.getId();
+                case COURSE -> subject.getId();
+                case LESSON -> project.getId();
+            };
+        }
+
+        /**
+         * @return name of the workspace, course or lesson at the time it was indexed.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return human readable location of this entry, e.g. "Workspace / Course".
+         */
+        public String getPath() {
+            return switch (type) {
+                case WORKSPACE -> "";
+                case COURSE -> workspace.getName();
+                case LESSON -> workspace.getName() + " / " + subject.getName();
+            };
+        }
+    }
+}